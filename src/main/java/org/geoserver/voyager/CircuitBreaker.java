@@ -0,0 +1,252 @@
+package org.geoserver.voyager;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+
+import static org.geoserver.voyager.VoyagerDataStore.LOG;
+
+/**
+ * Stops sending requests to a backend that keeps failing, so callers fail fast rather than each
+ * waiting out the timeout.
+ * <p>
+ * The circuit opens when enough of the recent requests failed from overload, or took longer than
+ * the slow call time. While open requests fail straight away with a {@link CircuitOpenException}.
+ * Once the open time has passed a single probe request is let through, closing the circuit if it
+ * succeeds and opening it again if not. The state of each breaker is published as an MBean.
+ * </p>
+ * <p>
+ * A breaker is shared by all the stores of a backend, takes the configuration of the store created
+ * last, and is unregistered once the last of them is disposed.
+ * </p>
+ */
+public class CircuitBreaker implements CircuitBreakerMBean {
+
+    enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    /* breakers by backend url, shared by the stores of all the indexes of a backend */
+    static final Map<String, CircuitBreaker> BACKENDS = new ConcurrentHashMap<>();
+
+    /* number of recent requests the failure rate is taken over, and needed before opening */
+    static final int WINDOW = 20;
+    static final int MIN_CALLS = 10;
+
+    final String backend;
+    double failureRate;
+    long openTime;
+    long slowCallTime;
+
+    /* number of stores sharing the breaker, only changed while mapped in BACKENDS */
+    int stores;
+
+    /* outcomes of the recent requests, true for failures */
+    final boolean[] outcomes = new boolean[WINDOW];
+    int count;
+    int next;
+    int failures;
+
+    State state = State.CLOSED;
+    long openedAt;
+    boolean probing;
+
+    long opened;
+    long rejected;
+
+    /**
+     * The breaker of the backend of a store, created on first use and reconfigured by every store
+     * after that. Stores give it back with {@link #dispose()}.
+     */
+    static CircuitBreaker of(VoyagerConfig config) {
+        return BACKENDS.compute(config.uri, (uri, breaker) -> {
+            if (breaker == null) {
+                breaker = new CircuitBreaker(uri, config);
+                breaker.register();
+            }
+            else {
+                breaker.configure(config);
+            }
+            breaker.stores++;
+            return breaker;
+        });
+    }
+
+    public CircuitBreaker(String backend, VoyagerConfig config) {
+        this.backend = backend;
+        configure(config);
+    }
+
+    /**
+     * Applies the configuration of a store.
+     */
+    public synchronized void configure(VoyagerConfig config) {
+        failureRate = config.breakerFailureRate;
+        openTime = TimeUnit.MILLISECONDS.toNanos(config.breakerOpenTime);
+        slowCallTime = TimeUnit.MILLISECONDS.toNanos(config.breakerSlowCallTime);
+    }
+
+    /**
+     * Gives back the breaker of a disposed store, unregistering it once no store uses it.
+     */
+    void dispose() {
+        BACKENDS.computeIfPresent(backend, (uri, breaker) -> {
+            if (breaker != this || --stores > 0) {
+                return breaker;
+            }
+            unregister();
+            return null;
+        });
+    }
+
+    /**
+     * Lets a request through, unless the circuit is open.
+     *
+     * @return Whether the request is the probe of a half open circuit, to pass to
+     * {@link #release(boolean, boolean, long)}.
+     * @throws CircuitOpenException If the circuit is open.
+     */
+    public synchronized boolean acquire() throws CircuitOpenException {
+        if (failureRate <= 0) {
+            return false;
+        }
+        switch (state) {
+            case OPEN:
+                if (System.nanoTime() - openedAt < openTime) {
+                    rejected++;
+                    throw new CircuitOpenException("Voyager backend " + backend + " is failing, not sending requests "
+                        + "for " + TimeUnit.NANOSECONDS.toSeconds(openTime) + "s");
+                }
+                state = State.HALF_OPEN;
+                probing = false;
+                // fall through
+            case HALF_OPEN:
+                if (probing) {
+                    rejected++;
+                    throw new CircuitOpenException("Voyager backend " + backend + " is failing, waiting on a probe request");
+                }
+                probing = true;
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Records the outcome of a request.
+     *
+     * @param probe The value returned when the request was let through.
+     * @param failed Whether the request failed from overload.
+     * @param nanos Time the backend took to start answering, or a negative value if it shouldn't count
+     *              as slow.
+     */
+    public synchronized void release(boolean probe, boolean failed, long nanos) {
+        if (failureRate <= 0) {
+            return;
+        }
+        failed |= slowCallTime > 0 && nanos > slowCallTime;
+
+        if (probe) {
+            probing = false;
+            if (failed) {
+                open();
+            }
+            else {
+                close();
+            }
+            return;
+        }
+        if (state != State.CLOSED) {
+            // sent before the circuit opened
+            return;
+        }
+
+        if (count == WINDOW && outcomes[next]) {
+            failures--;
+        }
+        outcomes[next] = failed;
+        next = (next + 1) % WINDOW;
+        count = Math.min(count + 1, WINDOW);
+        if (failed) {
+            failures++;
+        }
+
+        if (count >= MIN_CALLS && failures >= failureRate * count) {
+            open();
+        }
+    }
+
+    /**
+     * Gives back a request that wasn't sent after all.
+     */
+    public synchronized void cancel(boolean probe) {
+        if (probe) {
+            probing = false;
+        }
+    }
+
+    void open() {
+        if (state != State.OPEN) {
+            LOG.warning("Voyager backend " + backend + " is failing, failing requests fast for "
+                + TimeUnit.NANOSECONDS.toSeconds(openTime) + "s");
+            opened++;
+        }
+        state = State.OPEN;
+        openedAt = System.nanoTime();
+    }
+
+    void close() {
+        if (state != State.CLOSED) {
+            LOG.info("Voyager backend " + backend + " recovered");
+        }
+        state = State.CLOSED;
+        count = next = failures = 0;
+    }
+
+    void register() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, name());
+        }
+        catch (Exception e) {
+            LOG.log(Level.WARNING, "Unable to register circuit breaker of " + backend, e);
+        }
+    }
+
+    void unregister() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name());
+        }
+        catch (Exception e) {
+            LOG.log(Level.FINE, "Unable to unregister circuit breaker of " + backend, e);
+        }
+    }
+
+    ObjectName name() throws MalformedObjectNameException {
+        return new ObjectName("org.geoserver.voyager:type=CircuitBreaker,backend=" + ObjectName.quote(backend));
+    }
+
+    @Override
+    public synchronized String getState() {
+        return state.name();
+    }
+
+    @Override
+    public synchronized double getFailureRate() {
+        return count > 0 ? failures / (double) count : 0;
+    }
+
+    @Override
+    public synchronized long getOpened() {
+        return opened;
+    }
+
+    @Override
+    public synchronized long getRejected() {
+        return rejected;
+    }
+}
@@ -0,0 +1,27 @@
+package org.geoserver.voyager;
+
+/**
+ * Management interface of {@link CircuitBreaker}.
+ */
+public interface CircuitBreakerMBean {
+
+    /**
+     * CLOSED, OPEN or HALF_OPEN.
+     */
+    String getState();
+
+    /**
+     * Share of the recent requests that failed or were slow.
+     */
+    double getFailureRate();
+
+    /**
+     * Number of times the circuit opened since startup.
+     */
+    long getOpened();
+
+    /**
+     * Number of requests failed fast since startup.
+     */
+    long getRejected();
+}
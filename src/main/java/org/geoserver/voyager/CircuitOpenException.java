@@ -0,0 +1,13 @@
+package org.geoserver.voyager;
+
+import java.io.IOException;
+
+/**
+ * Thrown for requests to a backend that is failing, rather than waiting for it to time out.
+ */
+public class CircuitOpenException extends IOException {
+
+    public CircuitOpenException(String message) {
+        super(message);
+    }
+}
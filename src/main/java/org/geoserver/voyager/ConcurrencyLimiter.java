@@ -0,0 +1,321 @@
+package org.geoserver.voyager;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+
+import static org.geoserver.voyager.VoyagerDataStore.LOG;
+
+/**
+ * Limits the number of requests in flight to a solr backend, adapting the limit to how the
+ * backend copes.
+ * <p>
+ * The limit grows additively while requests keep the limit busy and their latency stays close to
+ * its long run average, and is cut multiplicatively when latency climbs well above it or requests
+ * fail from overload. Requests over the limit wait their turn for a bounded time, and are turned
+ * away straight away once as many are waiting as the limit allows in flight, so a saturated
+ * backend sheds load rather than growing a queue. Bulk requests only get a share of the limit
+ * and give way to waiting interactive requests, see {@link Priority}. The state of each limiter
+ * is published as an MBean.
+ * </p>
+ * <p>
+ * A limiter is shared by all the stores of a backend, takes the configuration of the store created
+ * last, and is unregistered once the last of them is disposed.
+ * </p>
+ */
+public class ConcurrencyLimiter implements ConcurrencyLimiterMBean {
+
+    /* limiters by backend url, shared by the stores of all the indexes of a backend */
+    static final Map<String, ConcurrencyLimiter> BACKENDS = new ConcurrentHashMap<>();
+
+    /* latency above this multiple of the long run average counts as congestion */
+    static final double TOLERANCE = 2.0;
+
+    /* factor the limit is cut by on congestion */
+    static final double BACKOFF = 0.9;
+
+    /* weights of new samples in the short and long run latency averages */
+    static final double SHORT_WEIGHT = 0.1;
+    static final double LONG_WEIGHT = 0.01;
+
+    int maxLimit;
+    long maxWait;
+
+    /* bulk requests wait as long as the socket timeout, a slow backend would have cost that too */
+    long bulkWait;
+    double bulkShare;
+
+    /* number of stores sharing the limiter, only changed while mapped in BACKENDS */
+    int stores;
+
+    double limit;
+    int inFlight;
+    int bulkInFlight;
+    int waiting;
+    int interactiveWaiting;
+
+    /* smoothed latencies, in nanoseconds */
+    double shortLatency;
+    double longLatency;
+    long lastBackoff;
+
+    long rejected;
+    long backoffs;
+
+    /**
+     * The limiter of the backend of a store, created on first use and reconfigured by every store
+     * after that. Stores give it back with {@link #dispose(String)}.
+     */
+    static ConcurrencyLimiter of(VoyagerConfig config) {
+        return BACKENDS.compute(config.uri, (uri, limiter) -> {
+            if (limiter == null) {
+                limiter = new ConcurrencyLimiter(config);
+                limiter.register(uri);
+            }
+            else {
+                limiter.configure(config);
+            }
+            limiter.stores++;
+            return limiter;
+        });
+    }
+
+    public ConcurrencyLimiter(VoyagerConfig config) {
+        configure(config);
+        this.limit = Math.max(1, maxLimit / 4);
+    }
+
+    /**
+     * Applies the configuration of a store, keeping the current limit within the new maximum.
+     */
+    public synchronized void configure(VoyagerConfig config) {
+        maxLimit = Math.max(1, config.maxConcurrency);
+        maxWait = config.maxQueueWait;
+        bulkWait = Math.max(config.maxQueueWait, config.timeout);
+        bulkShare = config.bulkShare;
+        limit = Math.min(limit, maxLimit);
+        notifyAll();
+    }
+
+    /**
+     * Gives back the limiter of a disposed store, unregistering it once no store uses it.
+     */
+    void dispose(String uri) {
+        BACKENDS.computeIfPresent(uri, (u, limiter) -> {
+            if (limiter != this || --stores > 0) {
+                return limiter;
+            }
+            unregister(uri);
+            return null;
+        });
+    }
+
+    /**
+     * Takes a slot for a request, waiting for one when the backend is at its limit.
+     *
+     * @param wait Milliseconds to wait at most, capped by the configured maximum.
+     * @param priority Scheduling class of the request.
+     *
+     * @return The time the slot was taken, to pass to {@link #release(long, boolean, Priority)}.
+     * @throws IOException If no slot became free in time or too many requests are waiting.
+     */
+    public synchronized long acquire(long wait, Priority priority) throws IOException {
+        boolean bulk = priority == Priority.BULK;
+        if (!admits(bulk)) {
+            if ((bulk ? waiting - interactiveWaiting : interactiveWaiting) >= (int) limit) {
+                rejected++;
+                throw new IOException("Voyager backend saturated, " + waiting + " requests waiting");
+            }
+
+            long until = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Math.min(wait, bulk ? bulkWait : maxWait));
+            waiting++;
+            if (!bulk) {
+                interactiveWaiting++;
+            }
+            try {
+                while (!admits(bulk)) {
+                    long left = until - System.nanoTime();
+                    if (left <= 0) {
+                        rejected++;
+                        throw new IOException("Timed out waiting for a request slot of Voyager backend");
+                    }
+                    TimeUnit.NANOSECONDS.timedWait(this, left);
+                }
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted waiting for a request slot of Voyager backend");
+            }
+            finally {
+                waiting--;
+                if (!bulk) {
+                    interactiveWaiting--;
+                }
+            }
+        }
+        inFlight++;
+        if (bulk) {
+            bulkInFlight++;
+        }
+        return System.nanoTime();
+    }
+
+    /*
+     * Whether a request can be sent now, bulk requests give way to waiting interactive ones and
+     * never take more than their share of the limit.
+     */
+    boolean admits(boolean bulk) {
+        if (inFlight >= (int) limit) {
+            return false;
+        }
+        return !bulk || (interactiveWaiting == 0 && bulkInFlight < bulkLimit());
+    }
+
+    int bulkLimit() {
+        return Math.max(1, (int) (limit * bulkShare));
+    }
+
+    /**
+     * Gives back the slot of a request, adapting the limit to the time from when the slot was
+     * taken to now.
+     *
+     * @param start The time returned when the slot was taken.
+     * @param overload Whether the request failed in a way that indicates the backend is overloaded.
+     * @param priority Scheduling class the slot was taken with.
+     */
+    public void release(long start, boolean overload, Priority priority) {
+        release(overload, priority, System.nanoTime() - start);
+    }
+
+    /**
+     * Gives back the slot of a request, adapting the limit.
+     *
+     * @param overload Whether the request failed in a way that indicates the backend is overloaded.
+     * @param priority Scheduling class the slot was taken with.
+     * @param nanos Time the backend took to start answering, the rest of a response is read as fast
+     *              as its consumer takes it.
+     */
+    public synchronized void release(boolean overload, Priority priority, long nanos) {
+        long now = System.nanoTime();
+        double latency = nanos;
+        boolean busy = inFlight * 2 >= limit;
+        inFlight--;
+        if (priority == Priority.BULK) {
+            bulkInFlight--;
+        }
+
+        if (overload) {
+            backoff(now);
+        }
+        else {
+            if (longLatency == 0) {
+                shortLatency = longLatency = latency;
+            }
+            else {
+                shortLatency += SHORT_WEIGHT * (latency - shortLatency);
+                longLatency += LONG_WEIGHT * (latency - longLatency);
+            }
+
+            if (shortLatency > TOLERANCE * longLatency) {
+                backoff(now);
+            }
+            else if (busy && limit < maxLimit) {
+                // about one more slot for every limit's worth of requests
+                limit = Math.min(maxLimit, limit + 1 / limit);
+            }
+        }
+        notifyAll();
+    }
+
+    /*
+     * Cuts the limit, at most once per round trip so a burst of slow responses to requests that
+     * were all sent at the old limit count once.
+     */
+    void backoff(long now) {
+        if (now - lastBackoff < shortLatency) {
+            return;
+        }
+        lastBackoff = now;
+        limit = Math.max(1, limit * BACKOFF);
+        backoffs++;
+    }
+
+    void register(String uri) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, name(uri));
+        }
+        catch (Exception e) {
+            LOG.log(Level.WARNING, "Unable to register concurrency limiter of " + uri, e);
+        }
+    }
+
+    void unregister(String uri) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name(uri));
+        }
+        catch (Exception e) {
+            LOG.log(Level.FINE, "Unable to unregister concurrency limiter of " + uri, e);
+        }
+    }
+
+    static ObjectName name(String uri) throws MalformedObjectNameException {
+        return new ObjectName("org.geoserver.voyager:type=ConcurrencyLimiter,backend=" + ObjectName.quote(uri));
+    }
+
+    @Override
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    @Override
+    public synchronized int getMaxLimit() {
+        return maxLimit;
+    }
+
+    @Override
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    @Override
+    public synchronized int getBulkInFlight() {
+        return bulkInFlight;
+    }
+
+    @Override
+    public synchronized int getBulkLimit() {
+        return bulkLimit();
+    }
+
+    @Override
+    public synchronized int getWaiting() {
+        return waiting;
+    }
+
+    @Override
+    public synchronized long getRejected() {
+        return rejected;
+    }
+
+    @Override
+    public synchronized long getBackoffs() {
+        return backoffs;
+    }
+
+    @Override
+    public synchronized double getLatencyMillis() {
+        return shortLatency / 1e6;
+    }
+
+    @Override
+    public synchronized double getLongRunLatencyMillis() {
+        return longLatency / 1e6;
+    }
+}
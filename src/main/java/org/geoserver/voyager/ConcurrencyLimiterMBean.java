@@ -0,0 +1,51 @@
+package org.geoserver.voyager;
+
+/**
+ * Management interface of {@link ConcurrencyLimiter}.
+ */
+public interface ConcurrencyLimiterMBean {
+
+    /**
+     * Number of requests currently allowed in flight.
+     */
+    int getLimit();
+
+    int getMaxLimit();
+
+    int getInFlight();
+
+    /**
+     * Number of bulk requests in flight.
+     */
+    int getBulkInFlight();
+
+    /**
+     * Number of bulk requests allowed in flight, a share of the limit.
+     */
+    int getBulkLimit();
+
+    /**
+     * Number of requests waiting for a slot.
+     */
+    int getWaiting();
+
+    /**
+     * Number of requests turned away since startup.
+     */
+    long getRejected();
+
+    /**
+     * Number of times the limit was cut since startup.
+     */
+    long getBackoffs();
+
+    /**
+     * Recent average request latency.
+     */
+    double getLatencyMillis();
+
+    /**
+     * Long run average request latency, the baseline recent latency is compared against.
+     */
+    double getLongRunLatencyMillis();
+}
@@ -0,0 +1,123 @@
+package org.geoserver.voyager;
+
+import com.google.common.io.CountingInputStream;
+import org.apache.solr.client.solrj.ResponseParser;
+import org.apache.solr.client.solrj.impl.BinaryResponseParser;
+import org.apache.solr.common.util.NamedList;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+
+/**
+ * Javabin response parser that records the size of the response body, and optionally keeps a
+ * copy of the body when it's small enough.
+ */
+public class CountingResponseParser extends ResponseParser {
+
+    final BinaryResponseParser delegate;
+    long bytes;
+
+    /* largest body to keep a copy of, negative to not keep one */
+    int capture = -1;
+    ByteArrayOutputStream copy;
+
+    public CountingResponseParser() {
+        this(new BinaryResponseParser());
+    }
+
+    /**
+     * @param delegate The parser reading the response, eg. a streaming one.
+     */
+    public CountingResponseParser(BinaryResponseParser delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public String getWriterType() {
+        return delegate.getWriterType();
+    }
+
+    @Override
+    public String getContentType() {
+        return delegate.getContentType();
+    }
+
+    @Override
+    public String getVersion() {
+        return delegate.getVersion();
+    }
+
+    @Override
+    public NamedList<Object> processResponse(InputStream body, String encoding) {
+        CountingInputStream counting = new CountingInputStream(body);
+        InputStream in = counting;
+        if (capture >= 0) {
+            copy = new ByteArrayOutputStream();
+            in = new TeeInputStream(in, copy);
+        }
+        try {
+            return delegate.processResponse(in, encoding);
+        }
+        finally {
+            bytes = counting.getCount();
+        }
+    }
+
+    @Override
+    public NamedList<Object> processResponse(Reader reader) {
+        return delegate.processResponse(reader);
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Keeps a copy of the response body if it's no larger than the given size.
+     */
+    public CountingResponseParser capture(int max) {
+        this.capture = max;
+        return this;
+    }
+
+    /**
+     * The copy of the response body, null if it was too large or not kept.
+     */
+    public byte[] getCaptured() {
+        return copy != null && bytes <= capture ? copy.toByteArray() : null;
+    }
+
+    /*
+     * Copies what's read into an output stream, until the capture size is exceeded.
+     */
+    class TeeInputStream extends FilterInputStream {
+
+        final ByteArrayOutputStream out;
+
+        TeeInputStream(InputStream in, ByteArrayOutputStream out) {
+            super(in);
+            this.out = out;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0 && out.size() < capture + 1) {
+                out.write(b);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0 && out.size() < capture + 1) {
+                out.write(b, off, Math.min(n, capture + 1 - out.size()));
+            }
+            return n;
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package org.geoserver.voyager;
+
+import org.apache.solr.client.solrj.SolrResponse;
+import org.apache.solr.common.params.CommonParams;
+import org.apache.solr.common.params.ModifiableSolrParams;
+import org.apache.solr.common.util.NamedList;
+import org.geotools.data.Query;
+import org.geotools.util.factory.Hints;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Point in time by which a read has to finish.
+ * <p>
+ * The deadline of a read is the earliest of the one bound to the request context of the calling
+ * thread, the one in the {@link #HINT} of the query and the maximum query time of the store. The
+ * time left is sent to solr as <code>timeAllowed</code> so it gives up on its own, and requests
+ * still running when it passes are aborted. Responses solr cut short at the time allowed fail the
+ * read like an aborted request would, rather than pass for complete ones.
+ * </p>
+ */
+public class Deadline {
+
+    /**
+     * Query hint holding the milliseconds a read is allowed to take.
+     */
+    public static final Hints.Key HINT = new Hints.Key(Long.class);
+
+    /* deadline of the request being handled by the current thread */
+    static final ThreadLocal<Deadline> REQUEST = new ThreadLocal<>();
+
+    public static final Deadline NONE = new Deadline(Long.MAX_VALUE);
+
+    /* System.nanoTime() at which the deadline passes */
+    final long expires;
+
+    Deadline(long expires) {
+        this.expires = expires;
+    }
+
+    /**
+     * Deadline the given number of milliseconds from now, none when not positive.
+     */
+    public static Deadline in(long millis) {
+        return millis > 0 ? new Deadline(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis)) : NONE;
+    }
+
+    /**
+     * Binds a deadline to the request handled by the current thread, eg. from the maximum
+     * rendering time of a map request. Callers unbind it once the request completes.
+     */
+    public static void bind(Deadline deadline) {
+        REQUEST.set(deadline);
+    }
+
+    public static void unbind() {
+        REQUEST.remove();
+    }
+
+    /**
+     * Deadline of a read.
+     *
+     * @param query The query being read, may be null.
+     */
+    static Deadline of(Query query, VoyagerConfig config) {
+        Deadline d = in(config.maxQueryTime);
+
+        Deadline bound = REQUEST.get();
+        if (bound != null) {
+            d = d.min(bound);
+        }
+
+        Object hint = query != null && query.getHints() != null ? query.getHints().get(HINT) : null;
+        if (hint instanceof Number) {
+            d = d.min(in(((Number) hint).longValue()));
+        }
+        return d;
+    }
+
+    Deadline min(Deadline other) {
+        return other.expires - expires < 0 ? other : this;
+    }
+
+    public boolean isBounded() {
+        return this != NONE && expires != Long.MAX_VALUE;
+    }
+
+    /**
+     * Milliseconds left, never less than zero.
+     */
+    public long remaining() {
+        if (!isBounded()) {
+            return Long.MAX_VALUE;
+        }
+        return Math.max(0, TimeUnit.NANOSECONDS.toMillis(expires - System.nanoTime()));
+    }
+
+    public boolean expired() {
+        return isBounded() && expires - System.nanoTime() <= 0;
+    }
+
+    /**
+     * Fails once the deadline has passed.
+     */
+    public void check() throws InterruptedIOException {
+        if (expired()) {
+            throw new InterruptedIOException("Deadline of Voyager read expired");
+        }
+    }
+
+    /**
+     * Limits the time solr spends on a request to the time left, letting it stop collecting
+     * early from segments sorted the same as the request.
+     */
+    void apply(ModifiableSolrParams params) {
+        if (isBounded()) {
+            params.set(CommonParams.TIME_ALLOWED, (int) Math.max(1, Math.min(Integer.MAX_VALUE, remaining())));
+            params.set(CommonParams.SEGMENT_TERMINATE_EARLY, true);
+            // the header is the only place solr flags the results as partial
+            params.remove(CommonParams.OMIT_HEADER);
+        }
+    }
+
+    /**
+     * Whether solr ran out of the time allowed for a request, and returned the results found so
+     * far.
+     */
+    static boolean partial(SolrResponse rsp) {
+        NamedList<?> response = rsp.getResponse();
+        Object header = response != null ? response.get("responseHeader") : null;
+        return header instanceof NamedList && Boolean.TRUE.equals(((NamedList<?>) header).get("partialResults"));
+    }
+
+    /**
+     * Fails if a response is partial.
+     */
+    static <T extends SolrResponse> T complete(T rsp) throws InterruptedIOException {
+        if (partial(rsp)) {
+            throw new InterruptedIOException("Voyager request ran out of time allowed, results are partial");
+        }
+        return rsp;
+    }
+}
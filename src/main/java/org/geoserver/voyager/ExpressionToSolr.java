@@ -40,7 +40,7 @@ import org.opengis.temporal.Period;
 public class ExpressionToSolr implements ExpressionVisitor {
     private static Logger LOGGER =
             org.geotools.util.logging.Logging.getLogger(ExpressionToSolr.class);
-    private static final Envelope WORLD = new Envelope(-180, 180, -90, 90);
+    static final Envelope WORLD = new Envelope(-180, 180, -90, 90);
     private static final double SOLR_DISTANCE_TOLERANCE = 180;
 
     /** Default format used to SOLR to compare date type fields, timezone will set to UTC */
@@ -0,0 +1,154 @@
+package org.geoserver.voyager;
+
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.filter.And;
+import org.opengis.filter.BinaryLogicOperator;
+import org.opengis.filter.Filter;
+import org.opengis.filter.Id;
+import org.opengis.filter.Not;
+import org.opengis.filter.spatial.BinarySpatialOperator;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Plans the filter queries for an OGC filter.
+ * <p>
+ * Top level conjunctions are split into separate filter queries so that Solr can cache and order
+ * them independently. Attribute filters, which tend to repeat across requests, are left cached.
+ * Spatial filters and id selections, which are usually different for every request, are marked
+ * <code>cache=false</code> with a cost so they don't evict the reusable entries of the filter
+ * cache and are evaluated after the cheaper cached filters.
+ * </p>
+ */
+public class FilterQueryPlanner {
+
+    final SimpleFeatureType schema;
+    final VoyagerConfig config;
+
+    public FilterQueryPlanner(SimpleFeatureType schema, VoyagerConfig config) {
+        this.schema = schema;
+        this.config = config;
+    }
+
+    /**
+     * Encodes a filter into a list of filter queries.
+     */
+    public List<String> plan(Filter filter) throws Exception {
+        if (filter == null || filter == Filter.INCLUDE) {
+            return Collections.emptyList();
+        }
+
+        List<Filter> conjuncts = new ArrayList<>();
+        if (config.splitFilterQueries) {
+            flatten(filter, conjuncts);
+        }
+        else {
+            conjuncts.add(filter);
+        }
+
+        List<String> fqs = new ArrayList<>(conjuncts.size());
+        for (Filter f : conjuncts) {
+            if (f == Filter.INCLUDE) continue;
+
+            String fq = new FilterToSolr(schema, config).encodeToString(f).trim();
+            if (fq.isEmpty()) continue;
+            fq = selfContained(fq);
+
+            if (isSpatial(f)) {
+                fq = withLocalParams(fq, "cache=false cost=" + config.spatialFilterCost);
+            }
+            else if (f instanceof Id && ((Id) f).getIdentifiers().size() >= config.termsThreshold) {
+                fq = withLocalParams(fq, "cache=false cost=" + config.idFilterCost);
+            }
+            fqs.add(fq);
+        }
+        return fqs;
+    }
+
+    void flatten(Filter filter, List<Filter> conjuncts) {
+        if (filter instanceof And) {
+            for (Filter child : ((And) filter).getChildren()) {
+                flatten(child, conjuncts);
+            }
+        }
+        else {
+            conjuncts.add(filter);
+        }
+    }
+
+    /*
+     * Whether a filter has any spatial component, at any level.
+     */
+    static boolean isSpatial(Filter filter) {
+        if (filter instanceof BinarySpatialOperator) {
+            return true;
+        }
+        if (filter instanceof Not) {
+            return isSpatial(((Not) filter).getFilter());
+        }
+        if (filter instanceof BinaryLogicOperator) {
+            for (Filter child : ((BinaryLogicOperator) filter).getChildren()) {
+                if (isSpatial(child)) return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Adds local params to a filter query. If the query is itself a single local params query the
+     * params are merged into it, otherwise they are prepended.
+     */
+    static String withLocalParams(String fq, String params) {
+        fq = selfContained(fq);
+        if (fq.startsWith("{!") && localParamsEnd(fq) == fq.length() - 1) {
+            int i = 2;
+            while (i < fq.length() && fq.charAt(i) != ' ' && fq.charAt(i) != '}') i++;
+            String first = fq.substring(2, i);
+            if (first.contains("=")) {
+                // no parser name, just another local param
+                return "{!" + params + " " + fq.substring(2);
+            }
+            return fq.substring(0, i) + " " + params + fq.substring(i);
+        }
+        return "{!" + params + "}" + fq;
+    }
+
+    /*
+     * Nests the local params a filter query starts with when there's more to the query after
+     * them, which solr would otherwise drop.
+     */
+    static String selfContained(String fq) {
+        if (!fq.startsWith("{!")) {
+            return fq;
+        }
+        int end = localParamsEnd(fq);
+        if (end < 0 || end == fq.length() - 1) {
+            return fq;
+        }
+        return FilterToSolr.nested(fq.substring(0, end + 1)) + fq.substring(end + 1);
+    }
+
+    /*
+     * Finds the index of the brace closing the local params that start a query, skipping quoted
+     * values. Returns -1 if they aren't closed.
+     */
+    static int localParamsEnd(String fq) {
+        char quote = 0;
+        for (int i = 2; i < fq.length(); i++) {
+            char c = fq.charAt(i);
+            if (quote != 0) {
+                if (c == '\\') i++;
+                else if (c == quote) quote = 0;
+            }
+            else if (c == '\'' || c == '"') {
+                quote = c;
+            }
+            else if (c == '}') {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -4,13 +4,26 @@ import java.io.StringWriter;
 import java.io.UnsupportedEncodingException;
 import java.io.Writer;
 import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.logging.Logger;
+import java.util.regex.Pattern;
 import org.geotools.factory.CommonFactoryFinder;
 import org.geotools.filter.FilterCapabilities;
+import org.geotools.filter.function.InFunction;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.Point;
 import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.feature.type.AttributeDescriptor;
 import org.opengis.filter.And;
 import org.opengis.filter.BinaryComparisonOperator;
 import org.opengis.filter.BinaryLogicOperator;
@@ -33,6 +46,7 @@ import org.opengis.filter.PropertyIsNil;
 import org.opengis.filter.PropertyIsNotEqualTo;
 import org.opengis.filter.PropertyIsNull;
 import org.opengis.filter.expression.Expression;
+import org.opengis.filter.expression.Function;
 import org.opengis.filter.expression.Literal;
 import org.opengis.filter.expression.PropertyName;
 import org.opengis.filter.identity.Identifier;
@@ -76,6 +90,12 @@ public class FilterToSolr implements FilterVisitor {
                     "+", "-", "&&", "||", "!", "(", ")", "{", "}", "[", "]", "^", "\"", "~", ":"
             };
 
+    /* Names of the in() function variants, in(), in2(), in3(), ... */
+    private static final Pattern IN_FUNCTION = Pattern.compile("in\\d*");
+
+    /* mean length of a degree of latitude, as used by solr */
+    static final double KM_PER_DEGREE = 111.1950802335329;
+
     /** Filter factory */
     protected static FilterFactory filterFactory = CommonFactoryFinder.getFilterFactory(null);
 
@@ -99,6 +119,12 @@ public class FilterToSolr implements FilterVisitor {
     public FilterToSolr(SimpleFeatureType featureType, VoyagerConfig config) {
         this.featureType = featureType;
         this.config = config;
+        if (config != null) {
+            this.uniqueId = config.uniqueIdField;
+        }
+        if (featureType != null) {
+            this.featureTypeName = featureType.getTypeName();
+        }
     }
 
     /**
@@ -162,16 +188,29 @@ public class FilterToSolr implements FilterVisitor {
         capabilities.addAll(FilterCapabilities.LOGICAL_OPENGIS);
         capabilities.addAll(FilterCapabilities.SIMPLE_COMPARISONS_OPENGIS);
         capabilities.addType(FilterCapabilities.FID);
+        capabilities.addType(InFunction.class);
         capabilities.addType(FilterCapabilities.BETWEEN);
         capabilities.addType(FilterCapabilities.LIKE);
         capabilities.addType(FilterCapabilities.NULL_CHECK);
         capabilities.addType(FilterCapabilities.SPATIAL_BBOX);
-        // JD: as of solr 5 the disjoint filter no longer works directly so we disable it
-        // See https://issues.apache.org/jira/browse/LUCENE-5692
-        // capabilities.addType(FilterCapabilities.SPATIAL_DISJOINT);
-        capabilities.addType(FilterCapabilities.SPATIAL_WITHIN);
-        capabilities.addType(FilterCapabilities.SPATIAL_INTERSECT);
-        capabilities.addType(FilterCapabilities.SPATIAL_CONTAINS);
+        switch (strategy()) {
+            case RPT:
+                // JD: as of solr 5 the disjoint filter no longer works directly so we disable it
+                // See https://issues.apache.org/jira/browse/LUCENE-5692
+                // capabilities.addType(FilterCapabilities.SPATIAL_DISJOINT);
+                capabilities.addType(FilterCapabilities.SPATIAL_WITHIN);
+                capabilities.addType(FilterCapabilities.SPATIAL_INTERSECT);
+                capabilities.addType(FilterCapabilities.SPATIAL_CONTAINS);
+                capabilities.addType(FilterCapabilities.SPATIAL_DWITHIN);
+                break;
+            case LATLON_POINT:
+                // point fields only take rectangle and circle queries
+                capabilities.addType(FilterCapabilities.SPATIAL_DWITHIN);
+                break;
+            case BBOX:
+                // bbox fields only take rectangle queries, anything else is left to a post filter
+                break;
+        }
         // temporal filters
         capabilities.addType(After.class);
         capabilities.addType(Before.class);
@@ -224,6 +263,17 @@ public class FilterToSolr implements FilterVisitor {
     public Object visit(Id filter, Object extraData) {
         StringWriter output = asStringWriter(extraData);
         Set<Identifier> ids = filter.getIdentifiers();
+        if (ids.size() >= config.termsThreshold) {
+            List<String> values = new ArrayList<>(ids.size());
+            for (Identifier id : ids) {
+                values.add(decodeFID(id.toString()));
+            }
+            String query = encodeTerms(uniqueId, values);
+            if (query != null) {
+                output.append(query);
+                return output;
+            }
+        }
         output.append(" (");
         for (Iterator<Identifier> i = ids.iterator(); i.hasNext(); ) {
             Identifier id = i.next();
@@ -240,9 +290,9 @@ public class FilterToSolr implements FilterVisitor {
     @Override
     public Object visit(Not filter, Object extraData) {
         StringWriter output = asStringWriter(extraData);
-        output.append("NOT (");
-        filter.getFilter().accept(this, output);
-        output.append(")");
+        StringWriter clause = new StringWriter();
+        filter.getFilter().accept(this, clause);
+        output.append("NOT (").append(nested(clause.toString())).append(")");
         return output;
     }
 
@@ -268,11 +318,17 @@ public class FilterToSolr implements FilterVisitor {
 
     @Override
     public Object visit(PropertyIsEqualTo filter, Object extraData) {
+        if (isInFunction(filter.getExpression1()) || isInFunction(filter.getExpression2())) {
+            return buildInFunction(filter, extraData);
+        }
         return buildComparison(filter, extraData);
     }
 
     @Override
     public Object visit(PropertyIsNotEqualTo filter, Object extraData) {
+        if (isInFunction(filter.getExpression1()) || isInFunction(filter.getExpression2())) {
+            return buildInFunction(filter, extraData);
+        }
         return buildComparison(filter, extraData);
     }
 
@@ -337,15 +393,10 @@ public class FilterToSolr implements FilterVisitor {
     public Object visit(PropertyIsLike filter, Object extraData) {
         checkExpressionIsProperty(filter.getExpression());
         StringWriter output = asStringWriter(extraData);
-        String pattern = escapeSpecialCharacters(filter.getLiteral(), filter.getEscape());
-        pattern = pattern.replace(filter.getWildCard(), ".*");
-        pattern = pattern.replace(filter.getSingleChar(), ".{1,1}");
-        Expression expr = filter.getExpression();
-        ExpressionToSolr visitor = new ExpressionToSolr();
-        expr.accept(visitor, output);
-        output.append(":/");
-        output.append(pattern);
-        output.append("/ ");
+        String property = ((PropertyName) filter.getExpression()).getPropertyName();
+        LikePlanner planner =
+                new LikePlanner(filter.getWildCard(), filter.getSingleChar(), filter.getEscape());
+        output.append(planner.encode(property, field(property), filter.getLiteral(), filter.isMatchingCase()));
         return output;
     }
 
@@ -396,6 +447,47 @@ public class FilterToSolr implements FilterVisitor {
         return visitBinarySpatialOperator(filter, extraData);
     }
 
+    @Override
+    public Object visit(DWithin filter, Object extraData) {
+        StringWriter output = asStringWriter(extraData);
+        Expression e1 = filter.getExpression1();
+        checkExpressionIsProperty(e1);
+        Expression e2 = filter.getExpression2();
+        checkExpressionIsLiteral(e2);
+
+        ExpressionToSolr visitor = new ExpressionToSolr();
+        visitor.setFeatureType(featureType);
+        StringWriter field = new StringWriter();
+        e1.accept(visitor, field);
+
+        double km = toKilometers(filter.getDistance(), filter.getDistanceUnits());
+        Object value = ((Literal) e2).getValue();
+        if (value instanceof Point) {
+            // circle around a point, which every strategy but bbox can filter by directly
+            Point p = (Point) value;
+            output.append("{!geofilt sfield=").append(field.toString())
+                .append(" pt=").append(p.getY() + "," + p.getX())
+                .append(" d=").append(String.valueOf(km)).append("}");
+        }
+        else if (value instanceof Geometry && strategy() == SpatialStrategy.RPT) {
+            // rpt fields can match a buffer of any shape, distances are in degrees. A degree of
+            // longitude shrinks away from the equator, so the buffer is widened to cover the
+            // distance at the latitude furthest from it, and the features solr returns are
+            // checked against the distance itself, see GeodesicDWithin
+            Envelope env = ((Geometry) value).getEnvelopeInternal();
+            double degrees = km / KM_PER_DEGREE;
+            double lat = Math.min(89, Math.max(Math.abs(env.getMinY()), Math.abs(env.getMaxY())) + degrees);
+            output.append(field.toString()).append(":\"Intersects(BUFFER(");
+            visitor.setSpatialStrategy(SpatialStrategy.RPT);
+            e2.accept(visitor, output);
+            output.append(", ").append(String.valueOf(degrees / Math.cos(Math.toRadians(lat)))).append("))\"");
+        }
+        else {
+            throw new UnsupportedOperationException("DWithin filter only supported for points");
+        }
+        return output;
+    }
+
     @Override
     public Object visit(After after, Object extraData) {
         return visitBinaryTemporalOperator(after, extraData);
@@ -453,11 +545,6 @@ public class FilterToSolr implements FilterVisitor {
         throw new UnsupportedOperationException("Crosses filter not supported");
     }
 
-    @Override
-    public Object visit(DWithin filter, Object extraData) {
-        throw new UnsupportedOperationException("DWithin filter not supported");
-    }
-
     @Override
     public Object visit(Overlaps filter, Object extraData) {
         throw new UnsupportedOperationException("Overlaps filter not supported");
@@ -538,6 +625,25 @@ public class FilterToSolr implements FilterVisitor {
         return searchPhrase;
     }
 
+    /**
+     * Escapes a value to be written single quoted in local params.
+     */
+    static String escapeLocalParam(String value) {
+        return value.replace("\\", "\\\\").replace("'", "\\'");
+    }
+
+    /**
+     * Wraps a clause starting with local params, eg. a terms query, as a nested query so it can
+     * be combined with other clauses. Solr parses a query that starts with local params as just
+     * those, dropping everything after them. Other clauses are returned as is.
+     */
+    static String nested(String clause) {
+        if (!clause.startsWith("{!")) {
+            return clause;
+        }
+        return "_query_:\"" + clause.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+
     /*
      * Check if Expression is a Property
      */
@@ -593,23 +699,201 @@ public class FilterToSolr implements FilterVisitor {
         StringWriter output = asStringWriter(extraData);
         List<Filter> children = filter.getChildren();
         if (children != null) {
-            for (Iterator<Filter> i = children.iterator(); i.hasNext(); ) {
-                Filter child = i.next();
-                if (child instanceof BinaryLogicOperator) {
-                    output.append("(");
+            // equalities on the same property in an OR chain collapse into a single terms query
+            Map<String, List<String>> terms =
+                    filter instanceof Or ? collectTerms(children) : Collections.emptyMap();
+            Set<String> encoded = new HashSet<>();
+            List<String> clauses = new ArrayList<>(children.size());
+            for (Filter child : children) {
+                String property = terms.isEmpty() ? null : equalityProperty(child);
+                if (property != null && terms.containsKey(property)) {
+                    // the first member of the group encodes the whole group
+                    if (encoded.add(property)) {
+                        clauses.add(encodeTerms(property, terms.get(property)));
+                    }
+                    continue;
+                }
+                StringWriter clause = new StringWriter();
+                child.accept(visitor, clause);
+                if (child instanceof BinaryLogicOperator && !clause.toString().startsWith("{!")) {
+                    clauses.add("(" + clause + ")");
                 }
-                child.accept(visitor, output);
-                if (child instanceof BinaryLogicOperator) {
-                    output.append(")");
+                else {
+                    clauses.add(clause.toString());
                 }
-                if (i.hasNext()) {
+            }
+            for (int i = 0; i < clauses.size(); i++) {
+                if (i > 0) {
                     output.append(" ").append(operator).append(" ");
                 }
+                // local params only stay self contained when they're the whole query
+                output.append(clauses.size() > 1 ? nested(clauses.get(i)) : clauses.get(i));
+            }
+        }
+        return output;
+    }
+
+    /*
+     * Writes the SOLR query for an in() function compared against a boolean literal, ie.
+     * in(property, v1, v2, ...) = true
+     */
+    private Object buildInFunction(BinaryComparisonOperator filter, Object extraData) {
+        StringWriter output = asStringWriter(extraData);
+        boolean exprFirst = isInFunction(filter.getExpression1());
+        Function in = (Function) (exprFirst ? filter.getExpression1() : filter.getExpression2());
+        Expression other = exprFirst ? filter.getExpression2() : filter.getExpression1();
+        checkExpressionIsLiteral(other);
+
+        List<Expression> params = in.getParameters();
+        if (params.isEmpty()) {
+            throw new UnsupportedOperationException("in() function requires a property name");
+        }
+        checkExpressionIsProperty(params.get(0));
+        String property = ((PropertyName) params.get(0)).getPropertyName();
+
+        List<Literal> literals = new ArrayList<>(params.size() - 1);
+        for (Expression p : params.subList(1, params.size())) {
+            checkExpressionIsLiteral(p);
+            literals.add((Literal) p);
+        }
+
+        boolean match = Boolean.valueOf(String.valueOf(((Literal) other).getValue()));
+        if (filter instanceof PropertyIsNotEqualTo) {
+            match = !match;
+        }
+        if (!match) {
+            output.append("-");
+        }
+
+        if (literals.size() >= config.termsThreshold) {
+            List<String> values = new ArrayList<>(literals.size());
+            for (Literal l : literals) {
+                values.add(termValue(l.getValue()));
+            }
+            String query = encodeTerms(property, values);
+            if (query != null) {
+                output.append(match ? query : nested(query));
+                return output;
             }
         }
+
+        ExpressionToSolr visitor = new ExpressionToSolr();
+        output.append("(");
+        for (Iterator<Literal> i = literals.iterator(); i.hasNext(); ) {
+            output.append(property).append(":");
+            i.next().accept(visitor, output);
+            if (i.hasNext()) {
+                output.append(" OR ");
+            }
+        }
+        output.append(")");
         return output;
     }
 
+    /*
+     * Groups the values of equality comparisons against the same property, keeping only the
+     * groups large enough to be worth encoding as a terms query.
+     */
+    private Map<String, List<String>> collectTerms(List<Filter> children) {
+        Map<String, List<String>> terms = new LinkedHashMap<>();
+        for (Filter child : children) {
+            String property = equalityProperty(child);
+            if (property != null) {
+                Expression[] expr = binaryFilterVisitorNormalizer(
+                        ((PropertyIsEqualTo) child).getExpression1(),
+                        ((PropertyIsEqualTo) child).getExpression2());
+                terms.computeIfAbsent(property, p -> new ArrayList<>())
+                        .add(termValue(((Literal) expr[1]).getValue()));
+            }
+        }
+        terms.values().removeIf(values ->
+                values.size() < config.termsThreshold || values.stream().anyMatch(v -> v.contains(",")));
+        return terms;
+    }
+
+    /*
+     * Returns the property name of a simple property = literal comparison, or null if the
+     * filter is anything else.
+     */
+    private String equalityProperty(Filter filter) {
+        if (!(filter instanceof PropertyIsEqualTo)) {
+            return null;
+        }
+        Expression e1 = ((PropertyIsEqualTo) filter).getExpression1();
+        Expression e2 = ((PropertyIsEqualTo) filter).getExpression2();
+        PropertyName property = null;
+        Literal literal = null;
+        if (e1 instanceof PropertyName && e2 instanceof Literal) {
+            property = (PropertyName) e1;
+            literal = (Literal) e2;
+        } else if (e2 instanceof PropertyName && e1 instanceof Literal) {
+            property = (PropertyName) e2;
+            literal = (Literal) e1;
+        }
+        if (property == null || property.getPropertyName() == null) {
+            return null;
+        }
+        Object value = literal.getValue();
+        if (value == null || value instanceof Geometry || value instanceof Envelope) {
+            return null;
+        }
+        return property.getPropertyName();
+    }
+
+    /*
+     * Encodes a set membership test using the terms query parser, choosing the terms method from
+     * the number of values and the field's docValues. Returns null if the values can't be
+     * expressed as a comma separated list.
+     */
+    private String encodeTerms(String field, Collection<String> values) {
+        StringBuilder list = new StringBuilder();
+        for (String v : values) {
+            if (v.contains(",")) {
+                return null;
+            }
+            if (list.length() > 0) {
+                list.append(",");
+            }
+            list.append(escapeLocalParam(v));
+        }
+
+        String method =
+                values.size() >= config.termsDocValuesThreshold && hasDocValues(field)
+                        ? "docValuesTermsFilter"
+                        : "termsFilter";
+        return "{!terms f=" + field + " method=" + method + " v='" + list + "'}";
+    }
+
+    private boolean hasDocValues(String field) {
+        VoyagerField info = field(field);
+        return info != null && info.hasDocValues();
+    }
+
+    /*
+     * Looks up the index details of a property from the feature type, null if not available.
+     */
+    private VoyagerField field(String property) {
+        if (featureType == null || property == null) {
+            return null;
+        }
+        AttributeDescriptor att = featureType.getDescriptor(property);
+        return att != null ? (VoyagerField) att.getUserData().get(VoyagerField.class) : null;
+    }
+
+    /*
+     * Formats a literal value as raw (unescaped) indexed term text.
+     */
+    private String termValue(Object value) {
+        if (value instanceof Date) {
+            return new ExpressionToSolr().dateFormatUTC.format(value);
+        }
+        return String.valueOf(value);
+    }
+
+    private static boolean isInFunction(Expression expr) {
+        return expr instanceof Function && IN_FUNCTION.matcher(((Function) expr).getName()).matches();
+    }
+
     /*
      * Writes the SOLR query for temporal operator : After, Before, Begins, Ends, TEquals, BegunBy,
      * EndedBy, During, TContains
@@ -694,10 +978,24 @@ public class FilterToSolr implements FilterVisitor {
         visitor.setFeatureType(featureType);
 
         // initialize spatial strategy
-        visitor.setSpatialStrategy(config.spatialStrategy);
+        visitor.setSpatialStrategy(strategy());
 
         e1.accept(visitor, extraData);
 
+        if (strategy() == SpatialStrategy.LATLON_POINT) {
+            // point fields are queried with a range between the lower left and upper right corner
+            if (!(filter instanceof BBOX)) {
+                throw new RuntimeException("Unsupported filter type " + filter.getClass());
+            }
+            Object value = ((Literal) e2).getValue();
+            Envelope e = value instanceof Envelope
+                ? (Envelope) value : ((Geometry) value).getEnvelopeInternal();
+            e = e.intersection(ExpressionToSolr.WORLD);
+            output.append(":[").append(e.getMinY() + "," + e.getMinX())
+                .append(" TO ").append(e.getMaxY() + "," + e.getMaxX()).append("]");
+            return output;
+        }
+
         if (filter instanceof BBOX) {
             output.append(":\"Intersects(");
             e2.accept(visitor, extraData);
@@ -725,10 +1023,50 @@ public class FilterToSolr implements FilterVisitor {
         return output;
     }
 
+    SpatialStrategy strategy() {
+        return config != null ? config.strategy() : SpatialStrategy.RPT;
+    }
+
+    /*
+     * Converts a DWithin distance to kilometers, the unit of geofilt. Distances without units are
+     * taken to be in degrees, the units of the index.
+     */
+    static double toKilometers(double distance, String units) {
+        String u = units != null ? units.trim().toLowerCase() : "";
+        switch (u) {
+            case "m":
+            case "meter":
+            case "meters":
+            case "metre":
+            case "metres":
+                return distance / 1000;
+            case "km":
+            case "kilometer":
+            case "kilometers":
+            case "kilometre":
+            case "kilometres":
+                return distance;
+            case "mi":
+            case "mile":
+            case "miles":
+            case "statute miles":
+                return distance * 1.609344;
+            case "ft":
+            case "foot":
+            case "feet":
+                return distance * 0.0003048;
+            case "nm":
+            case "nautical miles":
+                return distance * 1.852;
+            default:
+                return distance * KM_PER_DEGREE;
+        }
+    }
+
     /*
      * Decodes a fid into its components based on a primary key.
      */
-    private String decodeFID(String FID) {
+    String decodeFID(String FID) {
         if (FID.startsWith(this.featureTypeName + ".")) {
             FID = FID.substring(this.featureTypeName.length() + 1);
         }
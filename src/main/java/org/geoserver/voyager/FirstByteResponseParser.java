@@ -0,0 +1,76 @@
+package org.geoserver.voyager;
+
+import org.apache.solr.client.solrj.ResponseParser;
+import org.apache.solr.client.solrj.SolrRequest;
+import org.apache.solr.client.solrj.impl.BinaryResponseParser;
+import org.apache.solr.common.util.NamedList;
+
+import java.io.InputStream;
+import java.io.Reader;
+
+/**
+ * Response parser that records when the response to a request starts arriving, before handing it
+ * to the parser of the request.
+ * <p>
+ * The time to first byte is how long the backend took to answer. The rest of a streamed response
+ * is read as fast as its consumer takes the documents, so the total time of a request says as
+ * much about a slow consumer as about the backend.
+ * </p>
+ */
+public class FirstByteResponseParser extends ResponseParser {
+
+    final ResponseParser delegate;
+
+    /* System.nanoTime() when the response started arriving, 0 until it has */
+    volatile long firstByte;
+
+    public FirstByteResponseParser(ResponseParser delegate) {
+        this.delegate = delegate;
+    }
+
+    /**
+     * Times the response to a request, wrapping its parser.
+     */
+    static FirstByteResponseParser time(SolrRequest<?> req) {
+        FirstByteResponseParser parser = new FirstByteResponseParser(
+            req.getResponseParser() != null ? req.getResponseParser() : new BinaryResponseParser());
+        req.setResponseParser(parser);
+        return parser;
+    }
+
+    /**
+     * Nanoseconds from a start time to the first byte of the response, or to now if no response
+     * arrived.
+     */
+    public long since(long start) {
+        long t = firstByte;
+        return (t != 0 ? t : System.nanoTime()) - start;
+    }
+
+    @Override
+    public String getWriterType() {
+        return delegate.getWriterType();
+    }
+
+    @Override
+    public String getContentType() {
+        return delegate.getContentType();
+    }
+
+    @Override
+    public String getVersion() {
+        return delegate.getVersion();
+    }
+
+    @Override
+    public NamedList<Object> processResponse(InputStream body, String encoding) {
+        firstByte = System.nanoTime();
+        return delegate.processResponse(body, encoding);
+    }
+
+    @Override
+    public NamedList<Object> processResponse(Reader reader) {
+        firstByte = System.nanoTime();
+        return delegate.processResponse(reader);
+    }
+}
@@ -0,0 +1,412 @@
+package org.geoserver.voyager;
+
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.CoordinateSequence;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.LineString;
+import org.locationtech.jts.geom.LinearRing;
+import org.locationtech.jts.geom.Point;
+import org.locationtech.jts.geom.Polygon;
+import org.locationtech.jts.geom.PrecisionModel;
+import org.locationtech.jts.geom.impl.PackedCoordinateSequence;
+import org.locationtech.jts.geom.impl.PackedCoordinateSequenceFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Decodes the geojson geometries returned by the <code>[geo]</code> transformer.
+ * <p>
+ * Coordinates are parsed straight into a reusable ordinate buffer which is copied once into the
+ * backing array of each coordinate sequence, there are no intermediate <code>Coordinate</code>
+ * objects or parse trees when the geometry factory uses packed double sequences. Ordinates are
+ * rounded to the precision model of the factory. Instances keep parse state and aren't thread
+ * safe.
+ * </p>
+ */
+public class GeoJsonDecoder {
+
+    static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    final GeometryFactory factory;
+    final PrecisionModel precision;
+    final boolean packed;
+
+    String json;
+    int pos;
+
+    /* ordinates of the sequence being parsed, x and y interleaved */
+    double[] buf = new double[64];
+    int size;
+
+    public GeoJsonDecoder(GeometryFactory factory) {
+        this.factory = factory;
+        this.precision = factory.getPrecisionModel();
+        this.packed = factory.getCoordinateSequenceFactory() == PackedCoordinateSequenceFactory.DOUBLE_FACTORY;
+    }
+
+    /**
+     * Decodes a geojson geometry.
+     *
+     * @throws IllegalArgumentException If the json isn't a valid geometry.
+     */
+    public Geometry decode(String json) {
+        this.json = json;
+        this.pos = 0;
+        try {
+            return geometry();
+        }
+        catch (IndexOutOfBoundsException e) {
+            throw error("Unexpected end of geometry");
+        }
+        finally {
+            this.json = null;
+        }
+    }
+
+    /**
+     * Creates a point from a coordinate pair, honouring the precision model of the factory.
+     */
+    public Point point(double x, double y) {
+        size = 0;
+        add(x, y);
+        return factory.createPoint(sequence());
+    }
+
+    Geometry geometry() {
+        expect('{');
+        String type = null;
+        int coordinates = -1, geometries = -1;
+        if (!next('}')) {
+            do {
+                String key = string();
+                expect(':');
+                if ("type".equals(key)) {
+                    type = string();
+                }
+                else if ("coordinates".equals(key)) {
+                    coordinates = skipWhitespace();
+                    skip();
+                }
+                else if ("geometries".equals(key)) {
+                    geometries = skipWhitespace();
+                    skip();
+                }
+                else {
+                    skip();
+                }
+            }
+            while (next(','));
+            expect('}');
+        }
+        int end = pos;
+
+        if (type == null) {
+            throw error("Geometry has no type");
+        }
+        if ("GeometryCollection".equals(type)) {
+            pos = require(geometries, "geometries");
+            List<Geometry> list = new ArrayList<>();
+            expect('[');
+            if (!next(']')) {
+                do {
+                    list.add(geometry());
+                }
+                while (next(','));
+                expect(']');
+            }
+            pos = end;
+            return factory.createGeometryCollection(list.toArray(new Geometry[0]));
+        }
+
+        pos = require(coordinates, "coordinates");
+        Geometry g;
+        switch (type) {
+            case "Point":
+                size = 0;
+                position(true);
+                g = size == 0 ? factory.createPoint() : factory.createPoint(sequence());
+                break;
+            case "MultiPoint":
+                sequenceOfPositions();
+                CoordinateSequence points = sequence();
+                Point[] pts = new Point[points.size()];
+                for (int i = 0; i < pts.length; i++) {
+                    pts[i] = point(points.getX(i), points.getY(i));
+                }
+                g = factory.createMultiPoint(pts);
+                break;
+            case "LineString":
+                sequenceOfPositions();
+                g = factory.createLineString(sequence());
+                break;
+            case "MultiLineString":
+                g = factory.createMultiLineString(lineStrings().toArray(new LineString[0]));
+                break;
+            case "Polygon":
+                g = polygon();
+                break;
+            case "MultiPolygon":
+                List<Polygon> polygons = new ArrayList<>();
+                expect('[');
+                if (!next(']')) {
+                    do {
+                        polygons.add(polygon());
+                    }
+                    while (next(','));
+                    expect(']');
+                }
+                g = factory.createMultiPolygon(polygons.toArray(new Polygon[0]));
+                break;
+            default:
+                throw error("Unsupported geometry type " + type);
+        }
+        pos = end;
+        return g;
+    }
+
+    Polygon polygon() {
+        List<LinearRing> rings = new ArrayList<>();
+        expect('[');
+        if (!next(']')) {
+            do {
+                sequenceOfPositions();
+                rings.add(factory.createLinearRing(sequence()));
+            }
+            while (next(','));
+            expect(']');
+        }
+        if (rings.isEmpty()) {
+            return factory.createPolygon();
+        }
+        return factory.createPolygon(rings.get(0), rings.subList(1, rings.size()).toArray(new LinearRing[0]));
+    }
+
+    List<LineString> lineStrings() {
+        List<LineString> lines = new ArrayList<>();
+        expect('[');
+        if (!next(']')) {
+            do {
+                sequenceOfPositions();
+                lines.add(factory.createLineString(sequence()));
+            }
+            while (next(','));
+            expect(']');
+        }
+        return lines;
+    }
+
+    /*
+     * Parses an array of positions into the ordinate buffer.
+     */
+    void sequenceOfPositions() {
+        size = 0;
+        expect('[');
+        if (!next(']')) {
+            do {
+                position(false);
+            }
+            while (next(','));
+            expect(']');
+        }
+    }
+
+    /*
+     * Parses a position, only x and y are kept.
+     */
+    void position(boolean allowEmpty) {
+        expect('[');
+        if (allowEmpty && next(']')) {
+            return;
+        }
+        double x = number();
+        expect(',');
+        double y = number();
+        while (next(',')) {
+            number();
+        }
+        expect(']');
+        add(x, y);
+    }
+
+    void add(double x, double y) {
+        if (size + 2 > buf.length) {
+            buf = Arrays.copyOf(buf, buf.length * 2);
+        }
+        if (!precision.isFloating()) {
+            x = precision.makePrecise(x);
+            y = precision.makePrecise(y);
+        }
+        buf[size++] = x;
+        buf[size++] = y;
+    }
+
+    CoordinateSequence sequence() {
+        if (packed) {
+            return new PackedCoordinateSequence.Double(Arrays.copyOf(buf, size), 2, 0);
+        }
+        Coordinate[] coords = new Coordinate[size / 2];
+        for (int i = 0; i < coords.length; i++) {
+            coords[i] = new Coordinate(buf[2 * i], buf[2 * i + 1]);
+        }
+        return factory.getCoordinateSequenceFactory().create(coords);
+    }
+
+    /*
+     * Parses a number, simple decimals are converted directly and anything else by the jdk.
+     */
+    double number() {
+        int start = skipWhitespace();
+        boolean negative = json.charAt(pos) == '-';
+        if (negative) pos++;
+
+        long mantissa = 0;
+        int digits = 0, fraction = 0;
+        boolean exact = true, point = false;
+        for (; pos < json.length(); pos++) {
+            char c = json.charAt(pos);
+            if (c >= '0' && c <= '9') {
+                if (digits < 18) {
+                    mantissa = mantissa * 10 + (c - '0');
+                    if (mantissa > 0) digits++;
+                    if (point) fraction++;
+                }
+                else if (!point) {
+                    exact = false;
+                }
+                else {
+                    // further fraction digits can't be represented exactly, let the jdk round
+                    exact = false;
+                }
+            }
+            else if (c == '.' && !point) {
+                point = true;
+            }
+            else if (c == 'e' || c == 'E' || c == '+' || (c == '-' && pos > start)) {
+                exact = false;
+            }
+            else {
+                break;
+            }
+        }
+        if (pos == start || (negative && pos == start + 1)) {
+            throw error("Expected number");
+        }
+
+        // values below 2^53 divided by an exact power of ten are correctly rounded
+        if (exact && mantissa < (1L << 53) && fraction < POWERS_OF_TEN.length) {
+            double v = mantissa / POWERS_OF_TEN[fraction];
+            return negative ? -v : v;
+        }
+        return Double.parseDouble(json.substring(start, pos));
+    }
+
+    String string() {
+        expect('"');
+        int start = pos;
+        StringBuilder sb = null;
+        while (true) {
+            char c = json.charAt(pos);
+            if (c == '"') {
+                String s = sb != null ? sb.append(json, start, pos).toString() : json.substring(start, pos);
+                pos++;
+                return s;
+            }
+            if (c == '\\') {
+                if (sb == null) sb = new StringBuilder();
+                sb.append(json, start, pos);
+                char e = json.charAt(pos + 1);
+                switch (e) {
+                    case 'n': sb.append('\n'); break;
+                    case 't': sb.append('\t'); break;
+                    case 'r': sb.append('\r'); break;
+                    case 'b': sb.append('\b'); break;
+                    case 'f': sb.append('\f'); break;
+                    case 'u':
+                        sb.append((char) Integer.parseInt(json.substring(pos + 2, pos + 6), 16));
+                        pos += 4;
+                        break;
+                    default: sb.append(e);
+                }
+                pos += 2;
+                start = pos;
+            }
+            else {
+                pos++;
+            }
+        }
+    }
+
+    /*
+     * Skips over any json value.
+     */
+    void skip() {
+        char c = json.charAt(skipWhitespace());
+        if (c == '"') {
+            string();
+        }
+        else if (c == '{' || c == '[') {
+            char close = c == '{' ? '}' : ']';
+            pos++;
+            if (!next(close)) {
+                do {
+                    if (c == '{') {
+                        string();
+                        expect(':');
+                    }
+                    skip();
+                }
+                while (next(','));
+                expect(close);
+            }
+        }
+        else if (c == '-' || (c >= '0' && c <= '9')) {
+            number();
+        }
+        else if (json.startsWith("true", pos) || json.startsWith("null", pos)) {
+            pos += 4;
+        }
+        else if (json.startsWith("false", pos)) {
+            pos += 5;
+        }
+        else {
+            throw error("Unexpected character " + c);
+        }
+    }
+
+    int skipWhitespace() {
+        while (pos < json.length() && Character.isWhitespace(json.charAt(pos))) pos++;
+        return pos;
+    }
+
+    void expect(char c) {
+        if (json.charAt(skipWhitespace()) != c) {
+            throw error("Expected " + c);
+        }
+        pos++;
+    }
+
+    boolean next(char c) {
+        if (skipWhitespace() < json.length() && json.charAt(pos) == c) {
+            pos++;
+            return true;
+        }
+        return false;
+    }
+
+    int require(int at, String key) {
+        if (at < 0) {
+            throw error("Geometry has no " + key);
+        }
+        return at;
+    }
+
+    IllegalArgumentException error(String message) {
+        return new IllegalArgumentException(message + " at " + pos + ": " + json);
+    }
+}
@@ -0,0 +1,87 @@
+package org.geoserver.voyager;
+
+import org.geotools.factory.CommonFactoryFinder;
+import org.geotools.filter.spatial.DWithinImpl;
+import org.geotools.filter.visitor.DuplicatingFilterVisitor;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.Point;
+import org.locationtech.jts.geom.util.AffineTransformation;
+import org.opengis.filter.Filter;
+import org.opengis.filter.FilterFactory2;
+import org.opengis.filter.expression.Expression;
+import org.opengis.filter.expression.Literal;
+import org.opengis.filter.spatial.DWithin;
+
+/**
+ * DWithin filter evaluated in kilometers on geographic coordinates, the way solr measures it.
+ * <p>
+ * GeoTools compares the planar distance in degrees to the distance of the filter whatever its
+ * units. Here the distance is converted to kilometers, and measured in a plane around the two
+ * geometries with longitudes scaled by the cosine of their latitude, which is close to the
+ * distance on the sphere for the distances maps are filtered by.
+ * </p>
+ */
+public class GeodesicDWithin extends DWithinImpl {
+
+    final double km;
+
+    public GeodesicDWithin(Expression e1, Expression e2, double km) {
+        super(e1, e2);
+        this.km = km;
+        setDistance(km);
+        setUnits("km");
+    }
+
+    @Override
+    public boolean evaluateInternal(Geometry left, Geometry right) {
+        if (left.isEmpty() || right.isEmpty()) {
+            return false;
+        }
+        Envelope a = left.getEnvelopeInternal(), b = right.getEnvelopeInternal();
+        double cos = Math.cos(Math.toRadians((a.centre().y + b.centre().y) / 2));
+        AffineTransformation scale = AffineTransformation.scaleInstance(cos, 1);
+        return scale.transform(left).isWithinDistance(scale.transform(right), km / FilterToSolr.KM_PER_DEGREE);
+    }
+
+    /**
+     * Whether a DWithin filter is sent to solr as a buffer around a shape other than a point,
+     * which is wider than the distance.
+     */
+    static boolean buffered(DWithin filter) {
+        Expression e2 = filter.getExpression2();
+        Object value = e2 instanceof Literal ? ((Literal) e2).getValue() : null;
+        return value instanceof Geometry && !(value instanceof Point);
+    }
+
+    /**
+     * Replaces the DWithin filters sent to solr as buffers with geodesic ones, to check the
+     * features solr returns against the distance itself. Returns null if there are none.
+     */
+    static Filter exact(Filter filter) {
+        Exact visitor = new Exact();
+        Filter exact = (Filter) filter.accept(visitor, null);
+        return visitor.replaced ? exact : null;
+    }
+
+    static class Exact extends DuplicatingFilterVisitor {
+
+        static final FilterFactory2 FF = CommonFactoryFinder.getFilterFactory2();
+
+        boolean replaced;
+
+        Exact() {
+            super(FF);
+        }
+
+        @Override
+        public Object visit(DWithin filter, Object extraData) {
+            if (!buffered(filter)) {
+                return super.visit(filter, extraData);
+            }
+            replaced = true;
+            return new GeodesicDWithin(visit(filter.getExpression1(), extraData), visit(filter.getExpression2(), extraData),
+                FilterToSolr.toKilometers(filter.getDistance(), filter.getDistanceUnits()));
+        }
+    }
+}
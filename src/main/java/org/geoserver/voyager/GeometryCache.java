@@ -0,0 +1,47 @@
+package org.geoserver.voyager;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.locationtech.jts.geom.Geometry;
+
+/**
+ * Cache of decoded geometries, so that features read again, like large polygons overlapping many
+ * tiles, are neither fetched nor parsed again.
+ * <p>
+ * Geometries are keyed by the id and version of their document, so an updated document misses
+ * the cache rather than returning a stale geometry. The cache holds up to a configured number of
+ * bytes, estimated from the number of coordinates of each geometry. Cached geometries are shared
+ * between the features read and must not be modified.
+ * </p>
+ */
+public class GeometryCache {
+
+    /* rough size of a geometry object, and of each of its coordinates in a packed sequence */
+    static final int OVERHEAD = 64;
+    static final int COORDINATE = 16;
+
+    final Cache<String, Geometry> geometries;
+
+    public GeometryCache(VoyagerConfig config) {
+        this.geometries = CacheBuilder.newBuilder()
+            .maximumWeight(config.geometryCacheSize)
+            .weigher((String k, Geometry g) -> weight(g))
+            .build();
+    }
+
+    static String key(Object id, Object version) {
+        return id + "@" + version;
+    }
+
+    static int weight(Geometry g) {
+        return OVERHEAD + g.getNumPoints() * COORDINATE;
+    }
+
+    public Geometry get(Object id, Object version) {
+        return geometries.getIfPresent(key(id, version));
+    }
+
+    public void put(Object id, Object version, Geometry g) {
+        geometries.put(key(id, version), g);
+    }
+}
@@ -0,0 +1,90 @@
+package org.geoserver.voyager;
+
+import java.util.Arrays;
+
+/**
+ * Decides when to hedge a request, sending it again to a replica if the first one is slow to
+ * answer.
+ * <p>
+ * The hedge delay is a percentile of the recent time to first byte, so only the slowest requests
+ * get hedged. Hedging is paid for out of a budget that every request adds a fraction of a hedge
+ * to, which caps the extra load at that fraction no matter how slow the backend gets.
+ * </p>
+ */
+public class HedgePolicy {
+
+    /* number of recent latencies the delay is taken from */
+    static final int WINDOW = 256;
+
+    /* latencies needed before hedging */
+    static final int MIN_SAMPLES = 32;
+
+    /* most hedges that can be saved up */
+    static final double MAX_TOKENS = 10;
+
+    final double percentile;
+    final double budget;
+
+    final long[] samples = new long[WINDOW];
+    int count;
+    int next;
+
+    /* delay, recomputed every few samples */
+    long delay = -1;
+    int stale;
+
+    double tokens;
+    long hedged;
+
+    public HedgePolicy(VoyagerConfig config) {
+        this.percentile = config.hedgePercentile;
+        this.budget = config.hedgeBudget;
+    }
+
+    /**
+     * Records the time a request took to start answering.
+     */
+    public synchronized void record(long nanos) {
+        samples[next] = nanos;
+        next = (next + 1) % WINDOW;
+        count = Math.min(count + 1, WINDOW);
+        if (++stale >= WINDOW / 16) {
+            delay = -1;
+        }
+    }
+
+    /**
+     * Milliseconds to wait for a request to answer before hedging it, or -1 to not hedge. Every
+     * call adds to the budget.
+     */
+    public synchronized long delay() {
+        tokens = Math.min(MAX_TOKENS, tokens + budget);
+        if (percentile <= 0 || count < MIN_SAMPLES || tokens < 1) {
+            return -1;
+        }
+        if (delay < 0) {
+            long[] sorted = Arrays.copyOf(samples, count);
+            Arrays.sort(sorted);
+            int i = (int) Math.min(count - 1, Math.ceil(percentile * count) - 1);
+            delay = Math.max(1, sorted[Math.max(0, i)] / 1000000);
+            stale = 0;
+        }
+        return delay;
+    }
+
+    /**
+     * Takes a hedge out of the budget, false if it's been spent in the meantime.
+     */
+    public synchronized boolean spend() {
+        if (tokens < 1) {
+            return false;
+        }
+        tokens -= 1;
+        hedged++;
+        return true;
+    }
+
+    public synchronized long getHedged() {
+        return hedged;
+    }
+}
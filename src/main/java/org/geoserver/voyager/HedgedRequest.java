@@ -0,0 +1,214 @@
+package org.geoserver.voyager;
+
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.solr.client.solrj.ResponseParser;
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.impl.BinaryResponseParser;
+import org.apache.solr.client.solrj.request.QueryRequest;
+import org.apache.solr.client.solrj.response.QueryResponse;
+import org.apache.solr.common.util.NamedList;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+
+import static org.geoserver.voyager.VoyagerDataStore.LOG;
+
+/**
+ * A query sent to the backend and, if it's slow to answer, also to a replica.
+ * <p>
+ * The first of the two to start answering claims the request and is parsed, the other is aborted.
+ * Claiming happens before the response is read, so documents streamed by the parser of the request
+ * only ever come from one of them. The request is made on the calling thread, the hedge on a fetch
+ * thread.
+ * </p>
+ */
+class HedgedRequest {
+
+    static final int UNCLAIMED = -1, PRIMARY = 0, HEDGE = 1, ABANDONED = 2;
+
+    final VoyagerDataStore store;
+    final QueryRequest req;
+    final Deadline deadline;
+    final Consumer<HttpRequestBase> listener;
+    final ResponseParser parser;
+
+    final AtomicInteger claim = new AtomicInteger(UNCLAIMED);
+    final AtomicReferenceArray<HttpRequestBase> methods = new AtomicReferenceArray<>(2);
+    final CompletableFuture<QueryResponse> hedged = new CompletableFuture<>();
+
+    HedgedRequest(VoyagerDataStore store, QueryRequest req, Deadline deadline, Consumer<HttpRequestBase> listener) {
+        this.store = store;
+        this.req = req;
+        this.deadline = deadline;
+        this.listener = listener;
+        this.parser = req.getResponseParser() != null ? req.getResponseParser() : new BinaryResponseParser();
+    }
+
+    QueryResponse process() throws IOException, SolrServerException {
+        ScheduledFuture<?> hedge = null;
+        long delay = store.hedging.delay();
+        if (delay >= 0) {
+            hedge = store.timer.schedule(this::submitHedge, delay, TimeUnit.MILLISECONDS);
+        }
+
+        req.setResponseParser(new Claiming(PRIMARY));
+        try {
+            return store.send(store.solr, req, deadline, m -> {
+                methods.set(PRIMARY, m);
+                if (listener != null) {
+                    listener.accept(m);
+                }
+            });
+        }
+        catch (SolrServerException | IOException | RuntimeException e) {
+            if (!claim.compareAndSet(UNCLAIMED, ABANDONED) && claim.get() == HEDGE) {
+                // the replica answered first
+                return hedged();
+            }
+            abort(HEDGE);
+            throw e;
+        }
+        finally {
+            if (hedge != null) {
+                hedge.cancel(false);
+            }
+        }
+    }
+
+    /*
+     * Hands the hedge to a fetch thread, the request isn't hedged if none is free.
+     */
+    void submitHedge() {
+        try {
+            store.fetchExecutor.execute(this::hedge);
+        }
+        catch (RejectedExecutionException e) {
+            if (LOG.isLoggable(Level.FINE)) {
+                LOG.fine("No fetch thread to hedge slow request");
+            }
+        }
+    }
+
+    /*
+     * Sends the request to a replica, unless it's been answered in the meantime or the budget is
+     * spent.
+     */
+    void hedge() {
+        if (claim.get() != UNCLAIMED || !store.hedging.spend()) {
+            return;
+        }
+
+        QueryRequest copy = new QueryRequest(req.getParams(), req.getMethod());
+        copy.setPath(req.getPath());
+        copy.setResponseParser(new Claiming(HEDGE));
+        SolrClient replica = store.replica();
+        if (LOG.isLoggable(Level.FINE)) {
+            LOG.fine("Hedging slow request to " + replica);
+        }
+
+        try {
+            hedged.complete(store.send(replica, copy, deadline, m -> {
+                methods.set(HEDGE, m);
+                if (claim.get() != UNCLAIMED) {
+                    m.abort();
+                }
+            }));
+        }
+        catch (Exception e) {
+            if (claim.get() == HEDGE) {
+                hedged.completeExceptionally(e);
+            }
+            else if (LOG.isLoggable(Level.FINE)) {
+                LOG.log(Level.FINE, "Hedged request failed", e);
+            }
+        }
+    }
+
+    QueryResponse hedged() throws IOException, SolrServerException {
+        try {
+            return hedged.get(deadline.remaining(), TimeUnit.MILLISECONDS);
+        }
+        catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            if (cause instanceof SolrServerException) throw (SolrServerException) cause;
+            throw new IOException(cause);
+        }
+        catch (TimeoutException e) {
+            throw new InterruptedIOException("Deadline of Voyager request expired");
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for hedged request");
+        }
+    }
+
+    void abort(int attempt) {
+        HttpRequestBase m = methods.get(attempt);
+        if (m != null) {
+            m.abort();
+        }
+    }
+
+    /*
+     * Parser of one of the attempts, parses the response if the attempt is first to answer.
+     */
+    class Claiming extends ResponseParser {
+
+        final int attempt;
+        final long start = System.nanoTime();
+
+        Claiming(int attempt) {
+            this.attempt = attempt;
+        }
+
+        void claim() {
+            if (!claim.compareAndSet(UNCLAIMED, attempt)) {
+                throw new CancellationException("Request answered by another replica");
+            }
+            store.hedging.record(System.nanoTime() - start);
+            abort(1 - attempt);
+        }
+
+        @Override
+        public String getWriterType() {
+            return parser.getWriterType();
+        }
+
+        @Override
+        public String getContentType() {
+            return parser.getContentType();
+        }
+
+        @Override
+        public String getVersion() {
+            return parser.getVersion();
+        }
+
+        @Override
+        public NamedList<Object> processResponse(InputStream body, String encoding) {
+            claim();
+            return parser.processResponse(body, encoding);
+        }
+
+        @Override
+        public NamedList<Object> processResponse(Reader reader) {
+            claim();
+            return parser.processResponse(reader);
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package org.geoserver.voyager;
+
+import org.apache.solr.client.solrj.util.ClientUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+
+/**
+ * Chooses the cheapest Solr encoding of a LIKE pattern for a field.
+ * <p>
+ * Patterns without wildcards become term queries and patterns with a single trailing wildcard
+ * prefix queries. Substring patterns use an n-gram field when one covers the substring length,
+ * and everything else is sent as a wildcard query, which Solr speeds up itself on fields indexed
+ * with reversed wildcards. Case insensitive patterns go to a lower cased copy of the field when
+ * the index has one.
+ * </p>
+ */
+public class LikePlanner {
+
+    static final Character MULTI = '*';
+    static final Character SINGLE = '?';
+
+    final String wildcard;
+    final String singleChar;
+    final String escape;
+
+    public LikePlanner(String wildcard, String singleChar, String escape) {
+        this.wildcard = wildcard;
+        this.singleChar = singleChar;
+        this.escape = escape;
+    }
+
+    /**
+     * Encodes a pattern.
+     * <p>
+     * Term and prefix queries are encoded as local params, which only stand alone as a whole
+     * filter query. Callers combining them with other clauses nest them, see
+     * {@link FilterToSolr#nested(String)}.
+     * </p>
+     *
+     * @param property The property being matched.
+     * @param field Index details of the property, may be null if not known.
+     * @param pattern The LIKE pattern.
+     * @param matchCase Whether the match is case sensitive.
+     */
+    public String encode(String property, VoyagerField field, String pattern, boolean matchCase) {
+        List<Object> parts = parse(pattern);
+
+        // case insensitive matches can be answered exactly by a lower cased field
+        VoyagerField target = field;
+        boolean lower = field != null && field.lowercase;
+        if (field != null && !matchCase) {
+            Optional<VoyagerField> lc = field.find(f -> f.lowercase && !f.tokenized && !f.isNGram());
+            if (lc.isPresent()) {
+                target = lc.get();
+                lower = true;
+            }
+        }
+        String name = target != null ? target.name : property;
+
+        int wildcards = 0;
+        boolean singles = false;
+        for (Object p : parts) {
+            if (p == MULTI || p == SINGLE) wildcards++;
+            if (p == SINGLE) singles = true;
+        }
+
+        // exact term
+        if (wildcards == 0) {
+            return localParams("term", name, literal(parts, lower));
+        }
+
+        // prefix
+        if (wildcards == 1 && parts.get(parts.size() - 1) == MULTI) {
+            return localParams("prefix", name, literal(parts, lower));
+        }
+
+        // substring covered by the grams of an n-gram field
+        if (field != null && !singles && wildcards == 2 && parts.size() == 3
+                && parts.get(0) == MULTI && parts.get(2) == MULTI) {
+            int length = ((String) parts.get(1)).length();
+            boolean folded = !matchCase;
+            Optional<VoyagerField> ngram = field.find(f -> f.isNGram() && !f.tokenized
+                    && f.lowercase == folded && length >= f.minGram && length <= f.maxGram);
+            if (ngram.isPresent()) {
+                return localParams("term", ngram.get().name, literal(parts, folded));
+            }
+        }
+
+        // wildcard, solr uses the reversed terms of a field for leading wildcards so prefer
+        // a copy indexed that way if the target field isn't
+        if (target != null && !target.reversedWildcards && parts.get(0) instanceof Character) {
+            boolean folded = lower;
+            Optional<VoyagerField> reversed = field.find(f -> f.reversedWildcards && !f.tokenized
+                    && !f.isNGram() && f.lowercase == folded);
+            if (reversed.isPresent()) {
+                name = reversed.get().name;
+            }
+        }
+
+        StringBuilder query = new StringBuilder(name).append(":");
+        for (Object p : parts) {
+            if (p instanceof Character) {
+                query.append(p);
+            }
+            else {
+                String s = (String) p;
+                query.append(ClientUtils.escapeQueryChars(lower ? s.toLowerCase(Locale.ROOT) : s));
+            }
+        }
+        return query.toString();
+    }
+
+    /*
+     * Splits a pattern into literal strings and wildcard characters.
+     */
+    List<Object> parse(String pattern) {
+        List<Object> parts = new ArrayList<>();
+        StringBuilder literal = new StringBuilder();
+        int i = 0;
+        while (i < pattern.length()) {
+            if (escape != null && !escape.isEmpty() && pattern.startsWith(escape, i)
+                    && i + escape.length() < pattern.length()) {
+                i += escape.length();
+                literal.append(pattern.charAt(i++));
+            }
+            else if (pattern.startsWith(wildcard, i)) {
+                flush(literal, parts);
+                // consecutive multi wildcards are redundant
+                if (parts.isEmpty() || parts.get(parts.size() - 1) != MULTI) {
+                    parts.add(MULTI);
+                }
+                i += wildcard.length();
+            }
+            else if (pattern.startsWith(singleChar, i)) {
+                flush(literal, parts);
+                parts.add(SINGLE);
+                i += singleChar.length();
+            }
+            else {
+                literal.append(pattern.charAt(i++));
+            }
+        }
+        flush(literal, parts);
+        if (parts.isEmpty()) {
+            parts.add("");
+        }
+        return parts;
+    }
+
+    static void flush(StringBuilder literal, List<Object> parts) {
+        if (literal.length() > 0) {
+            parts.add(literal.toString());
+            literal.setLength(0);
+        }
+    }
+
+    static String literal(List<Object> parts, boolean lower) {
+        StringBuilder sb = new StringBuilder();
+        for (Object p : parts) {
+            if (p instanceof String) sb.append(p);
+        }
+        return lower ? sb.toString().toLowerCase(Locale.ROOT) : sb.toString();
+    }
+
+    static String localParams(String parser, String field, String value) {
+        return "{!" + parser + " f=" + field + " v='" + FilterToSolr.escapeLocalParam(value) + "'}";
+    }
+}
@@ -47,7 +47,8 @@ public class OffsetLimitSimpleFeatureReader implements SimpleFeatureReader {
             count = 0;
         }
 
-        if (count > limit) {
+        // stop once the limit is reached, without asking the delegate which may mean another request
+        if (limit != null && count >= limit) {
             return false;
         }
 
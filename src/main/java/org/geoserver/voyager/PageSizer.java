@@ -0,0 +1,66 @@
+package org.geoserver.voyager;
+
+/**
+ * Sizes the pages of a read.
+ * <p>
+ * When the number of documents a read needs is known the first page asks for just that many.
+ * Later pages grow towards the configured byte budget based on the measured size of the
+ * documents read so far, backing off when pages take longer than the configured latency.
+ * </p>
+ */
+public class PageSizer {
+
+    final VoyagerConfig config;
+
+    /* documents still needed, null when unlimited */
+    Integer remaining;
+
+    /* size of the next page */
+    int size;
+
+    public PageSizer(VoyagerConfig config, Integer limit) {
+        this.config = config;
+        this.remaining = limit;
+        this.size = limit != null ? Math.max(1, Math.min(limit, config.maxPageSize)) : config.pageSize;
+    }
+
+    /**
+     * Whether the read already has all the documents it needs.
+     */
+    public boolean done() {
+        return remaining != null && remaining <= 0;
+    }
+
+    /**
+     * The number of rows to request for the next page.
+     */
+    public int next() {
+        return remaining != null ? Math.max(1, Math.min(size, remaining)) : size;
+    }
+
+    /**
+     * Records a page that was read.
+     *
+     * @param docs Number of documents in the page.
+     * @param bytes Size of the response, 0 if not known.
+     * @param millis Time taken to fetch the page.
+     */
+    public void update(int docs, long bytes, long millis) {
+        if (remaining != null) {
+            remaining -= docs;
+        }
+        if (docs == 0) {
+            return;
+        }
+
+        if (millis > config.pageLatency) {
+            // slow page, back off but not below the configured page size
+            size = Math.max(Math.min(size, config.pageSize), size / 2);
+        }
+        else {
+            long docBytes = Math.max(1, bytes / docs);
+            int target = (int) Math.max(1, Math.min(config.maxPageSize, config.pageBytes / docBytes));
+            size = (int) Math.min(target, size * 2L);
+        }
+    }
+}
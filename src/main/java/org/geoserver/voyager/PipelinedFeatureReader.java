@@ -0,0 +1,235 @@
+package org.geoserver.voyager;
+
+import com.google.common.base.Throwables;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.common.SolrDocument;
+import org.geotools.data.simple.SimpleFeatureReader;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.logging.Level;
+
+import static org.geoserver.voyager.VoyagerDataStore.LOG;
+
+/**
+ * Feature reader that fetches and decodes in parallel with the consumer.
+ * <p>
+ * A fetch task streams the pages of the wrapped reader and hands the documents in batches to the
+ * decode pool of the store as they are parsed off the response, so decoding starts before a page
+ * has been fully read. The pending batches are queued in the order of the documents so features
+ * come out in the order solr returned them, and the queue is bounded so the fetch task, and with
+ * it the read of the response, waits when the consumer falls behind.
+ * </p>
+ * <p>
+ * Reads are only pipelined once they are bulk, until then pages are read and decoded on the
+ * consumer's thread like any other read, so small reads don't tie up a fetch thread and a decode
+ * pool. A read that doesn't get a fetch thread carries on that way.
+ * </p>
+ */
+public class PipelinedFeatureReader implements SimpleFeatureReader {
+
+    /* documents decoded per task */
+    static final int BATCH_SIZE = 64;
+
+    /* marks the end of the read */
+    static final Future<List<SimpleFeature>> END = CompletableFuture.completedFuture(null);
+
+    final VoyagerFeatureReader reader;
+    final VoyagerDataStore store;
+    final BlockingQueue<Future<List<SimpleFeature>>> queue;
+
+    Future<?> fetcher;
+
+    /* documents waiting for a decode task, only touched by the fetch task */
+    List<SolrDocument> batch = new ArrayList<>(BATCH_SIZE);
+
+    Iterator<SimpleFeature> curr;
+    /* whether pages are read on the consumer's thread for good, when no fetch thread was free */
+    boolean inline = false;
+    boolean done = false;
+    volatile boolean closed = false;
+
+    PipelinedFeatureReader(VoyagerFeatureReader reader) {
+        this.reader = reader;
+        this.store = reader.source.store;
+        this.queue = new ArrayBlockingQueue<>(Math.max(2, store.config.pipelineDepth));
+    }
+
+    @Override
+    public SimpleFeatureType getFeatureType() {
+        return reader.getFeatureType();
+    }
+
+    @Override
+    public boolean hasNext() throws IOException {
+        while (curr == null || !curr.hasNext()) {
+            if (done || closed) {
+                return false;
+            }
+            if (fetcher == null && !inline && reader.priority() == Priority.BULK) {
+                try {
+                    fetcher = store.fetchExecutor.submit(this::fetch);
+                }
+                catch (RejectedExecutionException e) {
+                    inline = true;
+                }
+            }
+            if (fetcher == null) {
+                curr = read();
+                if (curr == null) {
+                    done = true;
+                    return false;
+                }
+                continue;
+            }
+
+            try {
+                Future<List<SimpleFeature>> batch = queue.take();
+                if (batch == END || closed) {
+                    done = true;
+                    return false;
+                }
+                curr = batch.get().iterator();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted reading features", e);
+            }
+            catch (ExecutionException e) {
+                done = true;
+                Throwables.propagateIfPossible(e.getCause(), IOException.class);
+                throw new IOException("Error reading features", e.getCause());
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public SimpleFeature next() throws IOException, IllegalArgumentException, NoSuchElementException {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return curr.next();
+    }
+
+    /*
+     * Reads the next page on the consumer's thread, null once all pages have been read.
+     */
+    Iterator<SimpleFeature> read() throws IOException {
+        List<SimpleFeature> features = new ArrayList<>();
+        try {
+            if (!reader.stream(doc -> features.add(reader.feature(doc)))) {
+                return null;
+            }
+        }
+        catch (SolrServerException e) {
+            throw new IOException(e);
+        }
+        return features.iterator();
+    }
+
+    /*
+     * Fetch task, queues a decode task for every batch of documents as they are parsed off each
+     * page.
+     */
+    void fetch() {
+        try {
+            while (!closed && reader.stream(this::add)) {
+                // flush the tail of the page
+                flush();
+            }
+            queue.put(END);
+        }
+        catch (InterruptedException | CancellationException e) {
+            // closed
+        }
+        catch (Exception e) {
+            if (closed) {
+                if (LOG.isLoggable(Level.FINE)) {
+                    LOG.log(Level.FINE, "Error fetching features after read was closed", e);
+                }
+                return;
+            }
+            CompletableFuture<List<SimpleFeature>> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            try {
+                queue.put(failed);
+            }
+            catch (InterruptedException ie) {
+                if (LOG.isLoggable(Level.FINE)) {
+                    LOG.log(Level.FINE, "Error fetching features after read was closed", e);
+                }
+            }
+        }
+    }
+
+    /*
+     * Adds a document to the pending batch, called from the response parser so that waiting on a
+     * full queue also stops reading the response.
+     */
+    void add(SolrDocument doc) {
+        batch.add(doc);
+        if (batch.size() == BATCH_SIZE) {
+            flush();
+        }
+    }
+
+    void flush() {
+        if (batch.isEmpty()) {
+            return;
+        }
+        List<SolrDocument> docs = batch;
+        batch = new ArrayList<>(BATCH_SIZE);
+        try {
+            queue.put(store.decodeExecutor.submit(() -> decode(docs)));
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Feature read closed");
+        }
+    }
+
+    List<SimpleFeature> decode(List<SolrDocument> docs) {
+        if (closed) {
+            return Collections.emptyList();
+        }
+        VoyagerEvents.Stage decode = VoyagerEvents.INSTANCE.begin(VoyagerEvents.Kind.DECODE, store.config.index);
+        List<SimpleFeature> features = new ArrayList<>(docs.size());
+        for (SolrDocument doc : docs) {
+            VoyagerFeature f = reader.feature(doc);
+            for (int i = 0; i < f.getAttributeCount(); i++) {
+                f.getAttribute(i);
+            }
+            features.add(f);
+        }
+        decode.end(docs.size(), 0);
+        return features;
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        if (fetcher != null) {
+            fetcher.cancel(true);
+        }
+        for (Future<List<SimpleFeature>> f; (f = queue.poll()) != null; ) {
+            f.cancel(false);
+        }
+        // wakes up a consumer waiting on the queue, the fetch task no longer fills it
+        queue.offer(END);
+        reader.close();
+    }
+}
@@ -0,0 +1,66 @@
+package org.geoserver.voyager;
+
+import org.geotools.data.simple.FilteringSimpleFeatureReader;
+import org.geotools.data.simple.SimpleFeatureReader;
+import org.opengis.filter.Filter;
+import org.opengis.filter.FilterVisitor;
+
+import java.io.IOException;
+
+/**
+ * Post filtering reader that times the evaluation of the filter and records it as a flight
+ * recorder event once the read is closed.
+ */
+class PostFilterReader extends FilteringSimpleFeatureReader {
+
+    final String layer;
+    final Timed timed;
+
+    PostFilterReader(SimpleFeatureReader reader, Timed timed, String layer) {
+        super(reader, timed);
+        this.layer = layer;
+        this.timed = timed;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            super.close();
+        }
+        finally {
+            VoyagerEvents.INSTANCE.postFiltered(layer, timed.evaluated, timed.matched, timed.nanos);
+        }
+    }
+
+    /*
+     * Filter that counts and times its evaluations.
+     */
+    static class Timed implements Filter {
+
+        final Filter filter;
+        long evaluated;
+        long matched;
+        long nanos;
+
+        Timed(Filter filter) {
+            this.filter = filter;
+        }
+
+        @Override
+        public boolean evaluate(Object object) {
+            long start = System.nanoTime();
+            boolean match = filter.evaluate(object);
+            nanos += System.nanoTime() - start;
+            evaluated++;
+            if (match) {
+                matched++;
+            }
+            return match;
+        }
+
+        @Override
+        public Object accept(FilterVisitor visitor, Object extraData) {
+            return filter.accept(visitor, extraData);
+        }
+    }
+}
@@ -0,0 +1,239 @@
+package org.geoserver.voyager;
+
+import org.geotools.data.Query;
+import org.geotools.factory.CommonFactoryFinder;
+import org.geotools.filter.visitor.DuplicatingFilterVisitor;
+import org.geotools.filter.visitor.ExtractBoundsFilterVisitor;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.util.factory.Hints;
+import org.locationtech.jts.geom.Envelope;
+import org.opengis.filter.Filter;
+import org.opengis.filter.FilterFactory2;
+import org.opengis.filter.spatial.BBOX;
+import org.opengis.geometry.BoundingBox;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+import static org.geoserver.voyager.VoyagerDataStore.LOG;
+
+/**
+ * Warms the result cache with the tiles around the ones being read, so a map panned or zoomed in
+ * is served from the cache rather than solr.
+ * <p>
+ * When a read is filtered by bounding box the same read is made in the background for each of
+ * the eight neighbouring boxes of the same size, and optionally the four quarters of the box. The
+ * reads are bulk so they give way to interactive ones, and only so many run at once, tiles that
+ * would go over that are skipped.
+ * </p>
+ */
+public class Prefetcher {
+
+    /**
+     * Query hint marking a read made by the prefetcher, which isn't prefetched around itself.
+     */
+    public static final Hints.Key HINT = new Hints.Key(Boolean.class);
+
+    /* the extent of the layers, tiles entirely outside of it are not prefetched */
+    static final Envelope WORLD = new Envelope(-180, 180, -90, 90);
+
+    /* relative tolerance for a bounding box to line up with the tile grid */
+    static final double GRID_TOLERANCE = 1e-6;
+
+    final VoyagerDataStore store;
+    final Semaphore budget;
+    final boolean zoom;
+
+    final AtomicLong prefetched = new AtomicLong();
+    final AtomicLong skipped = new AtomicLong();
+
+    public Prefetcher(VoyagerDataStore store) {
+        this.store = store;
+        this.budget = new Semaphore(store.config.prefetchBudget);
+        this.zoom = store.config.prefetchZoom;
+    }
+
+    /**
+     * Prefetches the tiles around the one a query reads, if it's filtered by bounding box.
+     */
+    void prefetch(VoyagerFeatureSource source, Query query) {
+        Filter filter = query.getFilter();
+        if (filter == null || filter == Filter.INCLUDE || Boolean.TRUE.equals(query.getHints().get(HINT))) {
+            return;
+        }
+        Envelope tile = (Envelope) filter.accept(ExtractBoundsFilterVisitor.BOUNDS_VISITOR, null);
+        if (tile == null || tile.isNull() || tile.getWidth() <= 0 || tile.getHeight() <= 0
+            || Double.isInfinite(tile.getWidth()) || Double.isInfinite(tile.getHeight())) {
+            return;
+        }
+
+        for (Envelope target : neighbours(tile, zoom)) {
+            if (!budget.tryAcquire()) {
+                skipped.incrementAndGet();
+                return;
+            }
+            Filter moved = (Filter) filter.accept(new Move(tile, target), null);
+            if (moved.equals(filter)) {
+                // no bounding box to move
+                budget.release();
+                return;
+            }
+
+            Query q = new Query(query);
+            q.setFilter(moved);
+            Hints hints = new Hints(query.getHints());
+            hints.put(HINT, Boolean.TRUE);
+            hints.put(Priority.HINT, Priority.BULK);
+            q.setHints(hints);
+            try {
+                store.fetchExecutor.execute(() -> warm(source, q));
+            }
+            catch (RejectedExecutionException e) {
+                // no fetch thread free, like the budget running out
+                budget.release();
+                skipped.incrementAndGet();
+                return;
+            }
+            catch (RuntimeException e) {
+                budget.release();
+                throw e;
+            }
+        }
+    }
+
+    /*
+     * Reads the pages of a tile, which leaves them in the result cache. The documents are
+     * dropped as they are parsed, decoding them into features would only be thrown away.
+     */
+    void warm(VoyagerFeatureSource source, Query query) {
+        try {
+            if (source.snapshot(query) != null) {
+                // served from memory
+                return;
+            }
+            VoyagerFeatureReader reader = source.search(query);
+            QueryTrace trace = QueryTrace.start(store.config, "prefetch", query.getFilter());
+            reader.trace = trace != null ? trace.query(reader.query) : null;
+            try {
+                // tiles with more features are unlikely to fit in the cache anyway
+                while (reader.read < store.config.bulkThreshold && reader.stream(doc -> {})) {
+                    // next page
+                }
+            }
+            finally {
+                reader.close();
+                if (trace != null) {
+                    trace.finish();
+                }
+            }
+            prefetched.incrementAndGet();
+        }
+        catch (Exception e) {
+            if (LOG.isLoggable(Level.FINE)) {
+                LOG.log(Level.FINE, "Prefetch failed", e);
+            }
+        }
+        finally {
+            budget.release();
+        }
+    }
+
+    /**
+     * The tiles around a tile, its neighbours of the same size and optionally its quarters, that
+     * overlap the world rather than just touch it.
+     * <p>
+     * GeoServer reads a tile with its bounding box buffered, by the rendering buffer of the map or
+     * the gutter of a tile layer, so the box of a neighbour isn't the box moved by its own size.
+     * When the box is a tile of the lon/lat tile grids, 180 degrees divided by a power of two,
+     * buffered by less than half of it on each side, the neighbours are moved by the size of the
+     * tile and keep its buffer, and the quarters get half of it, which is the box they are read
+     * with. Other boxes are moved by their own size.
+     * </p>
+     */
+    static List<Envelope> neighbours(Envelope box, boolean zoom) {
+        Envelope tile = gridTile(box);
+        if (tile == null) {
+            tile = box;
+        }
+        double w = tile.getWidth(), h = tile.getHeight();
+        double bx = (box.getWidth() - w) / 2, by = (box.getHeight() - h) / 2;
+        List<Envelope> tiles = new ArrayList<>();
+        for (int dy = -1; dy <= 1; dy++) {
+            for (int dx = -1; dx <= 1; dx++) {
+                if (dx != 0 || dy != 0) {
+                    tiles.add(new Envelope(box.getMinX() + dx * w, box.getMaxX() + dx * w,
+                        box.getMinY() + dy * h, box.getMaxY() + dy * h));
+                }
+            }
+        }
+        if (zoom) {
+            double cx = tile.centre().x, cy = tile.centre().y;
+            tiles.add(quarter(tile.getMinX(), cx, tile.getMinY(), cy, bx / 2, by / 2));
+            tiles.add(quarter(cx, tile.getMaxX(), tile.getMinY(), cy, bx / 2, by / 2));
+            tiles.add(quarter(tile.getMinX(), cx, cy, tile.getMaxY(), bx / 2, by / 2));
+            tiles.add(quarter(cx, tile.getMaxX(), cy, tile.getMaxY(), bx / 2, by / 2));
+        }
+        tiles.removeIf(t -> WORLD.intersection(t).getArea() <= 0);
+        return tiles;
+    }
+
+    static Envelope quarter(double x1, double x2, double y1, double y2, double bx, double by) {
+        return new Envelope(x1 - bx, x2 + bx, y1 - by, y2 + by);
+    }
+
+    /**
+     * The tile of the lon/lat tile grids a bounding box is buffered around, or null if it isn't
+     * around one. The tile is the largest 180 / 2^z no larger than the box, so the buffer is less
+     * than half the tile on each side, and has to line up with the grid.
+     */
+    static Envelope gridTile(Envelope box) {
+        double w = gridSize(box.getWidth()), h = gridSize(box.getHeight());
+        double bx = (box.getWidth() - w) / 2, by = (box.getHeight() - h) / 2;
+        Envelope tile = new Envelope(box.getMinX() + bx, box.getMaxX() - bx, box.getMinY() + by, box.getMaxY() - by);
+        return onGrid(tile.getMinX() - WORLD.getMinX(), w) && onGrid(tile.getMinY() - WORLD.getMinY(), h) ? tile : null;
+    }
+
+    static double gridSize(double size) {
+        double grid = 180;
+        while (grid > size * (1 + GRID_TOLERANCE) && grid > Double.MIN_NORMAL) {
+            grid /= 2;
+        }
+        return grid;
+    }
+
+    static boolean onGrid(double offset, double size) {
+        double n = offset / size;
+        return Math.abs(n - Math.rint(n)) < GRID_TOLERANCE;
+    }
+
+    /*
+     * Moves the bounding boxes of a filter from one tile to another.
+     */
+    static class Move extends DuplicatingFilterVisitor {
+
+        static final FilterFactory2 FF = CommonFactoryFinder.getFilterFactory2();
+
+        final Envelope from, to;
+
+        Move(Envelope from, Envelope to) {
+            super(FF);
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public Object visit(BBOX filter, Object extraData) {
+            BoundingBox b = filter.getBounds();
+            double sx = to.getWidth() / from.getWidth(), sy = to.getHeight() / from.getHeight();
+            ReferencedEnvelope moved = new ReferencedEnvelope(
+                to.getMinX() + (b.getMinX() - from.getMinX()) * sx, to.getMinX() + (b.getMaxX() - from.getMinX()) * sx,
+                to.getMinY() + (b.getMinY() - from.getMinY()) * sy, to.getMinY() + (b.getMaxY() - from.getMinY()) * sy,
+                b.getCoordinateReferenceSystem());
+            return FF.bbox(visit(filter.getExpression1(), extraData), moved);
+        }
+    }
+}
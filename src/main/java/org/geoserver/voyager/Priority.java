@@ -0,0 +1,66 @@
+package org.geoserver.voyager;
+
+import org.geotools.data.Query;
+import org.geotools.util.factory.Hints;
+
+/**
+ * Scheduling class of the requests of a read.
+ * <p>
+ * Interactive reads, like map renders and feature info, take precedence over bulk reads, like
+ * exports and seeding, which only ever get a bounded share of the requests in flight to the
+ * backend. Reads are bulk when the query has a {@link #HINT} or the current request has a bound
+ * priority saying so, and otherwise once they need or have read more documents than the bulk
+ * threshold, so long running reads demote themselves.
+ * </p>
+ */
+public enum Priority {
+    INTERACTIVE, BULK;
+
+    /**
+     * Query hint holding the priority of a read.
+     */
+    public static final Hints.Key HINT = new Hints.Key(Priority.class);
+
+    /* priority of the request being handled by the current thread */
+    static final ThreadLocal<Priority> REQUEST = new ThreadLocal<>();
+
+    /**
+     * Binds a priority to the request handled by the current thread, eg. from the service of an
+     * ows request. Callers unbind it once the request completes.
+     */
+    public static void bind(Priority priority) {
+        REQUEST.set(priority);
+    }
+
+    public static void unbind() {
+        REQUEST.remove();
+    }
+
+    /**
+     * Priority given to a read explicitly, through the query hint or the request.
+     *
+     * @param query The query being read, may be null.
+     * @param fallback Priority if the read didn't get one, may be null.
+     */
+    static Priority of(Query query, Priority fallback) {
+        Object hint = query != null && query.getHints() != null ? query.getHints().get(HINT) : null;
+        if (hint instanceof Priority) {
+            return (Priority) hint;
+        }
+        Priority bound = REQUEST.get();
+        return bound != null ? bound : fallback;
+    }
+
+    /**
+     * Priority of a request of a read.
+     *
+     * @param explicit Priority given to the read, may be null.
+     * @param docs Number of documents the read needs or has read so far.
+     */
+    static Priority of(Priority explicit, long docs, VoyagerConfig config) {
+        if (explicit != null) {
+            return explicit;
+        }
+        return docs > config.bulkThreshold ? BULK : INTERACTIVE;
+    }
+}
@@ -0,0 +1,182 @@
+package org.geoserver.voyager;
+
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.response.QueryResponse;
+import org.apache.solr.common.util.NamedList;
+import org.geotools.data.simple.SimpleFeatureReader;
+import org.geotools.util.logging.Logging;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.filter.Filter;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+/**
+ * Timing of a read, logged to the slow query log when it takes longer than the slow query time.
+ * <p>
+ * A trace records the filter of the read and how it was split between solr and post filtering,
+ * the filter queries sent, the pages and documents fetched against the features returned, and
+ * where the time went: the time solr spent on the queries, the rest of the time taken by the
+ * requests, which is mostly network, and the time spent decoding features. The request that
+ * caused the read is taken from the description bound to the calling thread, eg. by a dispatcher
+ * callback. Traces are only kept when a slow query time is set.
+ * </p>
+ */
+public class QueryTrace {
+
+    /* separate from the store log so it can be enabled on its own */
+    static final Logger LOG = Logging.getLogger("voyager.slow");
+
+    /* description of the request being handled by the current thread */
+    static final ThreadLocal<String> REQUEST = new ThreadLocal<>();
+
+    final String kind;
+    final String layer;
+    final long threshold;
+    final long start = System.nanoTime();
+    final String request = REQUEST.get();
+
+    Filter filter;
+    Filter preFilter;
+    Filter postFilter;
+    String[] fq;
+
+    int pages;
+    int cached;
+    long docs;
+    long bytes;
+    long features;
+
+    /* summed over the pages, in milliseconds */
+    long qtime;
+    long elapsed;
+
+    final LongAdder decode = new LongAdder();
+
+    QueryTrace(String kind, String layer, long threshold) {
+        this.kind = kind;
+        this.layer = layer;
+        this.threshold = TimeUnit.MILLISECONDS.toNanos(threshold);
+    }
+
+    /**
+     * Binds a description of the request handled by the current thread, eg. the service, request
+     * and layers of an ows request. Callers unbind it once the request completes.
+     */
+    public static void bind(String request) {
+        REQUEST.set(request);
+    }
+
+    public static void unbind() {
+        REQUEST.remove();
+    }
+
+    /**
+     * Starts a trace, or returns null when there's no slow query log.
+     */
+    static QueryTrace start(VoyagerConfig config, String kind, Filter filter) {
+        if (config.slowQueryTime <= 0) {
+            return null;
+        }
+        QueryTrace trace = new QueryTrace(kind, config.index, config.slowQueryTime);
+        trace.filter = filter;
+        return trace;
+    }
+
+    QueryTrace split(Filter preFilter, Filter postFilter) {
+        this.preFilter = preFilter;
+        this.postFilter = postFilter;
+        return this;
+    }
+
+    QueryTrace query(SolrQuery query) {
+        this.fq = query.getFilterQueries();
+        return this;
+    }
+
+    /**
+     * Records a response, one with no elapsed time having been served from the result cache.
+     */
+    synchronized void page(QueryResponse rsp, int docs, long bytes) {
+        pages++;
+        this.docs += docs;
+        this.bytes += bytes;
+        if (rsp.getElapsedTime() <= 0) {
+            cached++;
+            return;
+        }
+        elapsed += rsp.getElapsedTime();
+        NamedList<?> header = rsp.getHeader();
+        Object q = header != null ? header.get("QTime") : null;
+        if (q instanceof Number) {
+            qtime += ((Number) q).longValue();
+        }
+    }
+
+    void decoded(long nanos) {
+        decode.add(nanos);
+    }
+
+    /**
+     * Logs the trace if it took longer than the slow query time.
+     */
+    synchronized void finish() {
+        long took = System.nanoTime() - start;
+        if (took < threshold) {
+            return;
+        }
+        LOG.info("Slow " + kind + " of " + layer + " took " + TimeUnit.NANOSECONDS.toMillis(took) + "ms"
+            + ": request=" + request
+            + ", filter=" + filter
+            + ", preFilter=" + preFilter
+            + ", postFilter=" + postFilter
+            + ", fq=" + (fq != null ? Arrays.toString(fq) : "[]")
+            + ", pages=" + pages
+            + ", cached=" + cached
+            + ", docs=" + docs
+            + ", features=" + features
+            + ", bytes=" + bytes
+            + ", qtime=" + qtime + "ms"
+            + ", network=" + Math.max(0, elapsed - qtime) + "ms"
+            + ", decode=" + TimeUnit.NANOSECONDS.toMillis(decode.sum()) + "ms");
+    }
+
+    /**
+     * Counts the features returned by a reader, finishing the trace when it's closed.
+     */
+    SimpleFeatureReader wrap(SimpleFeatureReader reader) {
+        return new SimpleFeatureReader() {
+            @Override
+            public SimpleFeatureType getFeatureType() {
+                return reader.getFeatureType();
+            }
+
+            @Override
+            public SimpleFeature next() throws IOException, IllegalArgumentException, NoSuchElementException {
+                SimpleFeature f = reader.next();
+                features++;
+                return f;
+            }
+
+            @Override
+            public boolean hasNext() throws IOException {
+                return reader.hasNext();
+            }
+
+            @Override
+            public void close() throws IOException {
+                try {
+                    reader.close();
+                }
+                finally {
+                    finish();
+                }
+            }
+        };
+    }
+}
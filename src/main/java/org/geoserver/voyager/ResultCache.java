@@ -0,0 +1,98 @@
+package org.geoserver.voyager;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.apache.solr.client.solrj.response.QueryResponse;
+import org.apache.solr.common.params.CommonParams;
+import org.apache.solr.common.params.SolrParams;
+
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+
+import static org.geoserver.voyager.VoyagerDataStore.LOG;
+
+/**
+ * Cache of the pages read from an index, so that repeated reads of the same tiles are served
+ * without a request to solr.
+ * <p>
+ * Pages are kept as the javabin body of their response, which is compact and is replayed through
+ * the same streaming parser as a response off the wire. They are keyed by the normalized
+ * parameters of the request, which include the filter, bounding box, properties and page of the
+ * read, and the cache holds up to a configured number of bytes. The time allowed isn't part of the
+ * key, so only responses known to be complete are cached. The index version is checked every so
+ * often, and the whole cache dropped when it changes.
+ * </p>
+ */
+public class ResultCache {
+
+    final Cache<String, byte[]> pages;
+
+    /* largest page kept */
+    final int maxEntry;
+    final long checkInterval;
+
+    volatile String version;
+    volatile long checked;
+    final AtomicBoolean checking = new AtomicBoolean();
+
+    public ResultCache(VoyagerConfig config) {
+        this.pages = CacheBuilder.newBuilder()
+            .maximumWeight(config.resultCacheSize)
+            .weigher((String k, byte[] v) -> k.length() + v.length)
+            .build();
+        this.maxEntry = (int) Math.min(Integer.MAX_VALUE, config.resultCacheSize / 16);
+        this.checkInterval = TimeUnit.MILLISECONDS.toNanos(config.resultCacheCheck);
+    }
+
+    public byte[] get(String key) {
+        return pages.getIfPresent(key);
+    }
+
+    public void put(String key, byte[] body) {
+        if (body != null && body.length <= maxEntry) {
+            pages.put(key, body);
+        }
+    }
+
+    /**
+     * Whether the response to a request can be cached, which it can't if it may be partial: solr
+     * flagged it so, or it was limited by a time allowed without the header that would say.
+     */
+    static boolean cacheable(SolrParams params, QueryResponse rsp) {
+        if (rsp.getHeader() == null) {
+            return params.get(CommonParams.TIME_ALLOWED) == null;
+        }
+        return !Deadline.partial(rsp);
+    }
+
+    /**
+     * Drops the cache if the index changed since it was last checked, checking at most once per
+     * interval.
+     */
+    void validate(VoyagerDataStore store) {
+        if (System.nanoTime() - checked < checkInterval || !checking.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            String current = store.indexVersion();
+            if (!Objects.equals(current, version) || current == null) {
+                if (version != null && LOG.isLoggable(Level.FINE)) {
+                    LOG.fine("Index version changed, dropping cached pages");
+                }
+                pages.invalidateAll();
+                version = current;
+            }
+        }
+        catch (Exception e) {
+            LOG.log(Level.FINE, "Unable to read index version, dropping cached pages", e);
+            pages.invalidateAll();
+            version = null;
+        }
+        finally {
+            checked = System.nanoTime();
+            checking.set(false);
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package org.geoserver.voyager;
+
+import org.apache.solr.common.params.CommonParams;
+import org.apache.solr.common.params.SolrParams;
+
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Coalesces identical concurrent calls, the first caller for a key makes the call and callers
+ * arriving while it's in flight wait for and share its result.
+ * <p>
+ * Nothing is kept once a call completes, so this only saves work that is duplicated at the same
+ * time, eg. the same count or page requested for the tiles of a map.
+ * </p>
+ */
+public class SingleFlight<K, V> {
+
+    /**
+     * A call that can be shared.
+     */
+    public interface Call<V> {
+        V call() throws Exception;
+    }
+
+    final ConcurrentMap<K, CompletableFuture<V>> flights = new ConcurrentHashMap<>();
+
+    /* number of calls that were saved by sharing */
+    final AtomicLong shared = new AtomicLong();
+
+    /**
+     * Makes a call, or waits for an identical one in flight.
+     *
+     * @param wait Milliseconds to wait for a shared call at most.
+     *
+     * @throws CancellationException If the shared call was given up by its caller, or ran out of
+     * the time of its caller, which may have had less left than the waiting one. The waiting caller
+     * can make the call itself.
+     * @throws InterruptedIOException If the shared call didn't complete in time.
+     */
+    public V run(K key, long wait, Call<V> call) throws Exception {
+        CompletableFuture<V> flight = new CompletableFuture<>();
+        CompletableFuture<V> existing = flights.putIfAbsent(key, flight);
+        if (existing != null) {
+            shared.incrementAndGet();
+            try {
+                return existing.get(wait, TimeUnit.MILLISECONDS);
+            }
+            catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof InterruptedIOException) {
+                    throw new CancellationException("Shared request ran out of time");
+                }
+                throw cause instanceof Exception ? (Exception) cause : e;
+            }
+            catch (TimeoutException e) {
+                throw new InterruptedIOException("Timed out waiting for shared request");
+            }
+        }
+
+        try {
+            V v = call.call();
+            flight.complete(v);
+            return v;
+        }
+        catch (Exception e) {
+            flight.completeExceptionally(e);
+            throw e;
+        }
+        catch (Error e) {
+            flight.completeExceptionally(e);
+            throw e;
+        }
+        finally {
+            flights.remove(key, flight);
+        }
+    }
+
+    public long getShared() {
+        return shared.get();
+    }
+
+    /**
+     * Key of a request, the same for requests with the same parameters in any order. Filter
+     * queries are intersected so their order doesn't matter either, and the parameters set from
+     * the deadline, including the header left out of unbounded ones, are left out as they differ
+     * between otherwise identical requests.
+     */
+    static String key(String path, SolrParams params) {
+        List<String> names = new ArrayList<>();
+        for (Iterator<String> it = params.getParameterNamesIterator(); it.hasNext(); ) {
+            names.add(it.next());
+        }
+        Collections.sort(names);
+
+        StringBuilder key = new StringBuilder(path != null ? path : "/select");
+        for (String name : names) {
+            String[] values = params.getParams(name);
+            if (values == null || CommonParams.TIME_ALLOWED.equals(name)
+                || CommonParams.SEGMENT_TERMINATE_EARLY.equals(name) || CommonParams.OMIT_HEADER.equals(name)) {
+                continue;
+            }
+            if (CommonParams.FQ.equals(name)) {
+                values = values.clone();
+                Arrays.sort(values);
+            }
+            for (String v : values) {
+                key.append('\n').append(name).append('=').append(v);
+            }
+        }
+        return key.toString();
+    }
+}
@@ -0,0 +1,498 @@
+package org.geoserver.voyager;
+
+import org.apache.solr.client.solrj.SolrQuery;
+import org.geotools.data.Query;
+import org.geotools.data.simple.SimpleFeatureReader;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.filter.visitor.DefaultFilterVisitor;
+import org.geotools.filter.visitor.ExtractBoundsFilterVisitor;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.index.strtree.STRtree;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.feature.type.AttributeDescriptor;
+import org.opengis.filter.Filter;
+import org.opengis.filter.PropertyIsEqualTo;
+import org.opengis.filter.PropertyIsLike;
+import org.opengis.filter.PropertyIsNotEqualTo;
+import org.opengis.filter.expression.Expression;
+import org.opengis.filter.expression.PropertyName;
+import org.opengis.filter.sort.SortBy;
+import org.opengis.filter.sort.SortOrder;
+import org.opengis.filter.spatial.Beyond;
+import org.opengis.filter.spatial.DWithin;
+
+import java.io.IOException;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+
+import static org.geoserver.voyager.VoyagerDataStore.LOG;
+
+/**
+ * In memory copy of a layer, that reads, counts and bounds are served from rather than solr.
+ * <p>
+ * The layer is loaded in the background the first time it's read, and served from solr until
+ * then. The copy holds a column of values per attribute with the rows ordered by id, the natural
+ * order of the layer, and a spatial index of the rows by geometry. Filters are evaluated against
+ * the features built from the rows the spatial index returns for the bounds of the filter.
+ * </p>
+ * <p>
+ * Every so often the version of the index is checked and when it changed the copy is refreshed,
+ * by merging in the documents modified since the last refresh when the layer has a modified time
+ * field, or loading it again otherwise. Deletes don't show up in a merge, so the ids in the index
+ * are read as well and the rows no longer in it are dropped. When the merged copy still doesn't
+ * hold the same features as the index it's loaded again too. A refreshed copy replaces the current
+ * one as a whole, so a read always sees a single version of the layer.
+ * </p>
+ * <p>
+ * Only filters that mean the same in memory as in solr are served from the copy, see
+ * {@link #evaluable(Filter, SimpleFeatureType)}, so the answers of a layer don't change once it
+ * has been loaded.
+ * </p>
+ */
+public class Snapshot {
+
+    final VoyagerDataStore store;
+    final VoyagerConfig config;
+
+    /* source the copy is loaded through, set on first read */
+    volatile VoyagerFeatureSource source;
+
+    volatile Data data;
+    final AtomicBoolean refreshing = new AtomicBoolean();
+
+    Snapshot(VoyagerDataStore store) {
+        this.store = store;
+        this.config = store.config;
+    }
+
+    /**
+     * The current copy of the layer, null until it has been loaded. The first call starts loading
+     * and refreshing it.
+     */
+    Data current(VoyagerFeatureSource source) {
+        if (this.source == null) {
+            synchronized (this) {
+                if (this.source == null) {
+                    this.source = source;
+                    store.timer.scheduleWithFixedDelay(this::submitRefresh,
+                        0, Math.max(1000, config.snapshotRefresh), TimeUnit.MILLISECONDS);
+                }
+            }
+        }
+        return data;
+    }
+
+    /*
+     * Hands a refresh to a fetch thread, if none is free the copy is refreshed next time around.
+     * Failing would stop the refreshes altogether.
+     */
+    void submitRefresh() {
+        try {
+            store.fetchExecutor.execute(this::refresh);
+        }
+        catch (RejectedExecutionException e) {
+            if (LOG.isLoggable(Level.FINE)) {
+                LOG.fine("No fetch thread to refresh snapshot of " + config.index);
+            }
+        }
+    }
+
+    void refresh() {
+        if (!refreshing.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            String version = store.indexVersion();
+            Data curr = data;
+            if (curr != null && version != null && version.equals(curr.version)) {
+                return;
+            }
+
+            long start = System.currentTimeMillis();
+            Data next = curr != null && curr.modified != null ? merge(curr, version) : null;
+            if (next == null) {
+                next = load(version);
+            }
+            data = next;
+
+            if (next != null && LOG.isLoggable(Level.FINE)) {
+                LOG.fine("Refreshed snapshot of " + config.index + ", " + next.size() + " features in "
+                    + (System.currentTimeMillis() - start) + "ms");
+            }
+        }
+        catch (Exception e) {
+            LOG.log(Level.WARNING, "Unable to refresh snapshot of " + config.index, e);
+        }
+        finally {
+            refreshing.set(false);
+        }
+    }
+
+    /*
+     * Loads the whole layer, or returns null if it has too many features to be kept in memory.
+     */
+    Data load(String version) throws Exception {
+        long count = count();
+        if (count > config.snapshotMaxFeatures) {
+            LOG.warning("Not keeping " + config.index + " in memory, it has " + count + " features, more than "
+                + config.snapshotMaxFeatures);
+            return null;
+        }
+
+        Map<String, Object[]> rows = new HashMap<>();
+        Date modified = read(null, rows);
+        return new Data(source.getSchema(), version, modified, rows);
+    }
+
+    /*
+     * Merges the documents modified since the copy was loaded and drops the deleted ones, or
+     * returns null if the copy doesn't match the index after all and the layer has to be loaded
+     * again, eg. when documents were added without a modified time.
+     */
+    Data merge(Data curr, String version) throws Exception {
+        Map<String, Object[]> rows = curr.rows();
+        Date modified = read(curr.modified, rows);
+
+        Set<String> ids = ids();
+        rows.keySet().retainAll(ids);
+        if (rows.size() != ids.size()) {
+            return null;
+        }
+        return new Data(curr.schema, version, modified, rows);
+    }
+
+    /*
+     * Reads the ids of all the documents of the layer, without the rest of their fields.
+     */
+    Set<String> ids() throws Exception {
+        SimpleFeatureType schema = source.getSchema();
+        SolrQuery q = store.query(schema, new Query(schema.getTypeName()));
+        q.setFields(config.uniqueIdField);
+
+        Set<String> ids = new HashSet<>();
+        VoyagerFeatureReader reader = new VoyagerFeatureReader(source, schema, q, null, Deadline.NONE, Priority.BULK);
+        try {
+            while (reader.stream(doc -> ids.add(doc.getFirstValue(config.uniqueIdField).toString()))) {
+                // next page
+            }
+        }
+        finally {
+            reader.close();
+        }
+        return ids;
+    }
+
+    /*
+     * Reads the documents of the layer, modified since a time if given, into rows by id and
+     * returns the latest modified time.
+     */
+    Date read(Date since, Map<String, Object[]> rows) throws Exception {
+        SimpleFeatureType schema = source.getSchema();
+        SolrQuery q = store.query(schema, new Query(schema.getTypeName()));
+        if (since != null) {
+            q.addFilterQuery(config.snapshotModifiedField + ":[" + DateTimeFormatter.ISO_INSTANT.format(since.toInstant())
+                + " TO *]");
+        }
+
+        int m = config.snapshotModifiedField != null ? schema.indexOf(config.snapshotModifiedField) : -1;
+        Date modified = since;
+
+        VoyagerFeatureReader reader = new VoyagerFeatureReader(source, schema, q, null, Deadline.NONE, Priority.BULK);
+        try {
+            while (reader.hasNext()) {
+                SimpleFeature f = reader.next();
+                Object[] values = new Object[schema.getAttributeCount()];
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = f.getAttribute(i);
+                }
+                rows.put(f.getID(), values);
+
+                if (m >= 0 && values[m] instanceof Date && (modified == null || modified.before((Date) values[m]))) {
+                    modified = (Date) values[m];
+                }
+            }
+        }
+        finally {
+            reader.close();
+        }
+        return modified;
+    }
+
+    long count() throws Exception {
+        SimpleFeatureType schema = source.getSchema();
+        SolrQuery q = store.query(schema, new Query(schema.getTypeName()));
+        q.setRows(0);
+        return store.process(store.request(q), Deadline.NONE, Priority.BULK, null).getResults().getNumFound();
+    }
+
+    /**
+     * Whether a filter evaluated against the features of the copy matches the same features as
+     * in solr. It doesn't when it measures distances, which are geodesic in solr and planar in
+     * degrees whatever their units in memory, or compares text fields that solr tokenizes or lower
+     * cases.
+     */
+    static boolean evaluable(Filter filter, SimpleFeatureType schema) {
+        if (filter == null) {
+            return true;
+        }
+        Evaluable visitor = new Evaluable(schema);
+        filter.accept(visitor, null);
+        return visitor.evaluable;
+    }
+
+    static class Evaluable extends DefaultFilterVisitor {
+
+        final SimpleFeatureType schema;
+        boolean evaluable = true;
+
+        Evaluable(SimpleFeatureType schema) {
+            this.schema = schema;
+        }
+
+        @Override
+        public Object visit(DWithin filter, Object data) {
+            evaluable = false;
+            return data;
+        }
+
+        @Override
+        public Object visit(Beyond filter, Object data) {
+            evaluable = false;
+            return data;
+        }
+
+        @Override
+        public Object visit(PropertyIsEqualTo filter, Object data) {
+            analyzed(filter.getExpression1());
+            analyzed(filter.getExpression2());
+            return data;
+        }
+
+        @Override
+        public Object visit(PropertyIsNotEqualTo filter, Object data) {
+            analyzed(filter.getExpression1());
+            analyzed(filter.getExpression2());
+            return data;
+        }
+
+        @Override
+        public Object visit(PropertyIsLike filter, Object data) {
+            analyzed(filter.getExpression());
+            return data;
+        }
+
+        void analyzed(Expression e) {
+            if (!(e instanceof PropertyName)) {
+                return;
+            }
+            AttributeDescriptor att = schema.getDescriptor(((PropertyName) e).getPropertyName());
+            VoyagerField field = att != null ? (VoyagerField) att.getUserData().get(VoyagerField.class) : null;
+            if (field != null && (field.tokenized || field.lowercase)) {
+                evaluable = false;
+            }
+        }
+    }
+
+    /**
+     * A version of the layer.
+     */
+    static class Data {
+
+        final SimpleFeatureType schema;
+        final String version;
+
+        /* latest modified time of the features, null if not known */
+        final Date modified;
+
+        /* ids of the rows in order, and the values of each attribute by row */
+        final String[] ids;
+        final Object[][] columns;
+
+        /* the geometry column, and the rows by its bounds */
+        final int geometry;
+        final STRtree index = new STRtree();
+
+        Data(SimpleFeatureType schema, String version, Date modified, Map<String, Object[]> rows) {
+            this.schema = schema;
+            this.version = version;
+            this.modified = modified;
+
+            this.ids = rows.keySet().toArray(new String[0]);
+            Arrays.sort(ids);
+            this.columns = new Object[schema.getAttributeCount()][ids.length];
+            this.geometry = schema.getGeometryDescriptor() != null
+                ? schema.indexOf(schema.getGeometryDescriptor().getLocalName()) : -1;
+
+            for (int r = 0; r < ids.length; r++) {
+                Object[] values = rows.get(ids[r]);
+                for (int c = 0; c < columns.length; c++) {
+                    columns[c][r] = values[c];
+                }
+                if (geometry >= 0 && values[geometry] instanceof Geometry) {
+                    index.insert(((Geometry) values[geometry]).getEnvelopeInternal(), r);
+                }
+            }
+            index.build();
+        }
+
+        int size() {
+            return ids.length;
+        }
+
+        /**
+         * The rows by id, to merge changes into.
+         */
+        Map<String, Object[]> rows() {
+            Map<String, Object[]> rows = new HashMap<>(ids.length * 4 / 3 + 1);
+            for (int r = 0; r < ids.length; r++) {
+                Object[] values = new Object[columns.length];
+                for (int c = 0; c < columns.length; c++) {
+                    values[c] = columns[c][r];
+                }
+                rows.put(ids[r], values);
+            }
+            return rows;
+        }
+
+        SimpleFeature feature(int row, SimpleFeatureBuilder builder) {
+            for (int c = 0; c < columns.length; c++) {
+                builder.set(c, columns[c][row]);
+            }
+            return builder.buildFeature(ids[row]);
+        }
+
+        /*
+         * Rows that may match a filter in order, those within its bounds when it has any.
+         */
+        int[] candidates(Filter filter) {
+            Envelope bounds = geometry >= 0 && filter != null && filter != Filter.INCLUDE
+                ? (Envelope) filter.accept(ExtractBoundsFilterVisitor.BOUNDS_VISITOR, null) : null;
+            if (bounds == null || bounds.isNull() || Double.isInfinite(bounds.getWidth())
+                || Double.isInfinite(bounds.getHeight())) {
+                int[] rows = new int[ids.length];
+                Arrays.setAll(rows, r -> r);
+                return rows;
+            }
+
+            List<?> items = index.query(bounds);
+            int[] rows = new int[items.size()];
+            for (int i = 0; i < rows.length; i++) {
+                rows[i] = (Integer) items.get(i);
+            }
+            Arrays.sort(rows);
+            return rows;
+        }
+
+        int count(Filter filter) {
+            if (filter == null || filter == Filter.INCLUDE) {
+                return size();
+            }
+            int count = 0;
+            SimpleFeatureBuilder builder = new SimpleFeatureBuilder(schema);
+            for (int r : candidates(filter)) {
+                if (filter.evaluate(feature(r, builder))) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        ReferencedEnvelope bounds(Filter filter) {
+            ReferencedEnvelope bounds = new ReferencedEnvelope(schema.getCoordinateReferenceSystem());
+            if (geometry < 0) {
+                return bounds;
+            }
+            boolean all = filter == null || filter == Filter.INCLUDE;
+            SimpleFeatureBuilder builder = new SimpleFeatureBuilder(schema);
+            for (int r : candidates(filter)) {
+                Object g = columns[geometry][r];
+                if (g instanceof Geometry && (all || filter.evaluate(feature(r, builder)))) {
+                    bounds.expandToInclude(((Geometry) g).getEnvelopeInternal());
+                }
+            }
+            return bounds;
+        }
+
+        /**
+         * Reads the features matching the filter of a query, in natural order.
+         *
+         * @param type Type of the features to read, the schema or a subset of it.
+         */
+        SimpleFeatureReader reader(Query query, SimpleFeatureType type) {
+            int[] rows = candidates(query.getFilter());
+            if (query.getSortBy() != null) {
+                for (SortBy sort : query.getSortBy()) {
+                    if (sort.getSortOrder() == SortOrder.DESCENDING) {
+                        for (int i = 0, j = rows.length - 1; i < j; i++, j--) {
+                            int r = rows[i];
+                            rows[i] = rows[j];
+                            rows[j] = r;
+                        }
+                    }
+                }
+            }
+            return new Reader(rows, query.getFilter(), type);
+        }
+
+        class Reader implements SimpleFeatureReader {
+
+            final int[] rows;
+            final Filter filter;
+            final SimpleFeatureType type;
+            final SimpleFeatureBuilder builder = new SimpleFeatureBuilder(schema);
+
+            int i = 0;
+            SimpleFeature next;
+
+            Reader(int[] rows, Filter filter, SimpleFeatureType type) {
+                this.rows = rows;
+                this.filter = filter != null ? filter : Filter.INCLUDE;
+                this.type = type;
+            }
+
+            @Override
+            public SimpleFeatureType getFeatureType() {
+                return type;
+            }
+
+            @Override
+            public boolean hasNext() {
+                while (next == null && i < rows.length) {
+                    SimpleFeature f = feature(rows[i++], builder);
+                    if (filter == Filter.INCLUDE || filter.evaluate(f)) {
+                        next = type == schema ? f : SimpleFeatureBuilder.retype(f, type);
+                    }
+                }
+                return next != null;
+            }
+
+            @Override
+            public SimpleFeature next() throws NoSuchElementException {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                SimpleFeature f = next;
+                next = null;
+                return f;
+            }
+
+            @Override
+            public void close() throws IOException {
+            }
+        }
+    }
+}
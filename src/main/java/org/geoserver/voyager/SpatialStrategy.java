@@ -1,13 +1,69 @@
 package org.geoserver.voyager;
 
+import org.locationtech.jts.geom.Envelope;
 import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.Point;
+import org.locationtech.jts.geom.Polygon;
 import org.locationtech.jts.io.WKTWriter;
 
+/**
+ * How the geometry field of an index is indexed, which decides how spatial filters are encoded,
+ * how bounds are calculated and how geometries are read back.
+ */
 public enum SpatialStrategy {
-    RPT;
+    /** <code>SpatialRecursivePrefixTreeFieldType</code>, any geometry */
+    RPT(Geometry.class),
+
+    /** <code>LatLonPointSpatialField</code>, points only */
+    LATLON_POINT(Point.class),
+
+    /** <code>BBoxField</code>, rectangles only */
+    BBOX(Polygon.class);
+
+    final Class<? extends Geometry> binding;
+
+    SpatialStrategy(Class<? extends Geometry> binding) {
+        this.binding = binding;
+    }
+
+    /**
+     * The geometry type of features read with this strategy.
+     */
+    public Class<? extends Geometry> binding() {
+        return binding;
+    }
 
     public String encode(Geometry geometry) {
-        WKTWriter writer = new WKTWriter();
-        return writer.write(geometry);
+        switch (this) {
+            case BBOX:
+                // fields only hold rectangles so all they can be queried with is one
+                Envelope e = geometry.getEnvelopeInternal();
+                return String.format("ENVELOPE(%s, %s, %s, %s)",
+                        e.getMinX(), e.getMaxX(), e.getMaxY(), e.getMinY());
+            default:
+                WKTWriter writer = new WKTWriter();
+                return writer.write(geometry);
+        }
+    }
+
+    /**
+     * Picks the strategy for a field type class as reported by Luke, returns null if the type isn't
+     * a known spatial type.
+     */
+    public static SpatialStrategy detect(String typeClass) {
+        if (typeClass == null) {
+            return null;
+        }
+        if (typeClass.endsWith("LatLonPointSpatialField") || typeClass.endsWith("LatLonType")) {
+            return LATLON_POINT;
+        }
+        if (typeClass.endsWith("BBoxField")) {
+            return BBOX;
+        }
+        if (typeClass.endsWith("SpatialRecursivePrefixTreeFieldType")
+                || typeClass.endsWith("RptWithGeometrySpatialField")) {
+            return RPT;
+        }
+        return null;
     }
 }
@@ -0,0 +1,100 @@
+package org.geoserver.voyager;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Shares the instances of repeated string values of low cardinality fields.
+ * <p>
+ * Every document read comes back with its own copies of values like formats or owners, which
+ * add up when a large result is held in memory. Values of a field are kept in a bounded
+ * dictionary, least recently used first out, and documents are given the dictionary instance.
+ * Fields known to have too many distinct values, from Luke or because their dictionary keeps
+ * missing, are passed through untouched.
+ * </p>
+ */
+public class ValueDictionary {
+
+    final int size;
+    final Map<String, Entries> fields = new ConcurrentHashMap<>();
+
+    /**
+     * @param size Maximum number of values kept per field, 0 to disable.
+     */
+    public ValueDictionary(int size) {
+        this.size = size;
+    }
+
+    /**
+     * Records the number of distinct values of a field, disabling it if there are too many.
+     */
+    public void distinct(String field, int distinct) {
+        if (size > 0 && distinct > size) {
+            fields.put(field, Entries.DISABLED);
+        }
+    }
+
+    /**
+     * Whether values of a field may be interned.
+     */
+    public boolean accepts(String field) {
+        return size > 0 && fields.get(field) != Entries.DISABLED;
+    }
+
+    /**
+     * Returns the shared instance of a value, or the value itself if the field isn't interned.
+     */
+    public Object intern(String field, Object value) {
+        if (!(value instanceof String) || size <= 0) {
+            return value;
+        }
+
+        Entries entries = fields.computeIfAbsent(field, f -> new Entries(size));
+        if (entries == Entries.DISABLED) {
+            return value;
+        }
+
+        synchronized (entries) {
+            if (entries.disabled) {
+                return value;
+            }
+            String v = (String) value;
+            String shared = entries.get(v);
+            entries.lookups++;
+            if (shared != null) {
+                return shared;
+            }
+
+            entries.misses++;
+            if (entries.lookups >= size * 4L && entries.misses * 2 > entries.lookups) {
+                // mostly unique values, the dictionary only costs time and memory
+                entries.disabled = true;
+                entries.clear();
+                fields.put(field, Entries.DISABLED);
+                return value;
+            }
+            entries.put(v, v);
+            return v;
+        }
+    }
+
+    static class Entries extends LinkedHashMap<String, String> {
+
+        static final Entries DISABLED = new Entries(0);
+
+        final int size;
+        long lookups, misses;
+        boolean disabled;
+
+        Entries(int size) {
+            super(16, 0.75f, true);
+            this.size = size;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > size;
+        }
+    }
+}
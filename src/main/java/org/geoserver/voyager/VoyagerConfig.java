@@ -9,15 +9,73 @@ public class VoyagerConfig {
     public String uri = "http://localhost:8888";
     public String uniqueIdField = "id";
     public String index = "v0";
-    public SpatialStrategy spatialStrategy = SpatialStrategy.RPT;
+    public SpatialStrategy spatialStrategy = null;
     public String geoField = "geohash";
+    public String latField = null;
+    public String lonField = null;
+    public double precision = 0;
     public List<String> filters = new ArrayList<>();
     public List<String> fieldBlacklist = new ArrayList<>();
+    public double minFieldDensity = 0;
+    public int dictionarySize = 1024;
     public int timeout = 10000;
+    public long maxQueryTime = 0;
+    public int maxConcurrency = 64;
+    public long maxQueueWait = 1000;
+    public double bulkShare = 0.5;
+    public double breakerFailureRate = 0.5;
+    public long breakerOpenTime = 10000;
+    public long breakerSlowCallTime = 5000;
+    public int bulkThreshold = 10000;
     public int pageSize = 100;
+    public int maxPageSize = 5000;
+    public long pageBytes = 4 * 1024 * 1024;
+    public long pageLatency = 2000;
+    public int decodeThreads = 0;
+    public int pipelineDepth = 16;
+    public int termsThreshold = 4;
+    public int termsDocValuesThreshold = 500;
+    public boolean realTimeGet = true;
+    public boolean splitFilterQueries = true;
+    public List<String> replicas = new ArrayList<>();
+    public double hedgePercentile = 0;
+    public double hedgeBudget = 0.05;
+    public long resultCacheSize = 0;
+    public long resultCacheCheck = 10000;
+    public long geometryCacheSize = 0;
+    public boolean snapshot = false;
+    public int snapshotMaxFeatures = 2000000;
+    public String snapshotModifiedField;
+    public long snapshotRefresh = 60000;
+    public int prefetchBudget = 0;
+    public boolean prefetchZoom = false;
+    public long slowQueryTime = 0;
+    public int spatialFilterCost = 100;
+    public int idFilterCost = 50;
+
+    /**
+     * The spatial strategy of the geo field, RPT until one is set or detected from the index.
+     */
+    public SpatialStrategy strategy() {
+        return spatialStrategy != null ? spatialStrategy : SpatialStrategy.RPT;
+    }
+
+    /**
+     * Whether point geometries can be read from numeric lat/lon companion fields.
+     */
+    public boolean hasPointFields() {
+        return latField != null && lonField != null;
+    }
 
     public String solrUri() {
-        return StringUtils.join(new String[]{uri, "solr", index}, '/');
+        return solrUri(uri);
+    }
+
+    /**
+     * The url of the index on a server, eg. a replica.
+     */
+    public String solrUri(String server) {
+        return StringUtils.join(new String[]{server, "solr", index}, '/');
     }
 
     public boolean includesField(String field) {
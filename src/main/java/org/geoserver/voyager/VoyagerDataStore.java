@@ -1,9 +1,27 @@
 package org.geoserver.voyager;
 
 import com.google.common.base.Strings;
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.conn.ConnectTimeoutException;
+import org.apache.solr.client.solrj.ResponseParser;
 import org.apache.solr.client.solrj.SolrClient;
 import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.SolrRequest;
+import org.apache.solr.client.solrj.SolrResponse;
+import org.apache.solr.client.solrj.SolrServerException;
 import org.apache.solr.client.solrj.impl.HttpSolrClient;
+import org.apache.solr.client.solrj.request.QueryRequest;
+import org.apache.solr.client.solrj.response.QueryResponse;
+import org.apache.solr.common.SolrException;
+import org.apache.solr.common.params.CommonParams;
+import org.apache.solr.common.params.ModifiableSolrParams;
+import org.apache.solr.common.params.SolrParams;
+import org.apache.solr.common.util.NamedList;
 import org.geotools.data.Query;
 import org.geotools.data.store.ContentDataStore;
 import org.geotools.data.store.ContentEntry;
@@ -14,18 +32,36 @@ import org.geotools.filter.visitor.SimplifyingFilterVisitor;
 import org.geotools.util.factory.Hints;
 import org.geotools.util.logging.Logging;
 import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.PrecisionModel;
+import org.locationtech.jts.geom.impl.PackedCoordinateSequenceFactory;
 import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.feature.type.AttributeDescriptor;
 import org.opengis.feature.type.Name;
 import org.opengis.filter.Filter;
 import org.opengis.filter.sort.SortBy;
 import org.opengis.filter.sort.SortOrder;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -34,25 +70,100 @@ public class VoyagerDataStore extends ContentDataStore  {
 
     final static Logger LOG = Logging.getLogger("voyager");
 
+    /* longest parameter payload sent as a GET request */
+    static final int MAX_GET_LENGTH = 4096;
+
+    /* version of a document, changed by every update of it */
+    static final String VERSION_FIELD = "_version_";
+
     final VoyagerConfig config;
     final SolrClient solr;
 
+    /* replicas of the backend slow requests are hedged to, and when to */
+    final List<SolrClient> replicas;
+    final AtomicInteger nextReplica = new AtomicInteger();
+    final HedgePolicy hedging;
+
+    /* shared instances of repeated attribute values */
+    final ValueDictionary dictionary;
+
+    /*
+     * background page fetches and feature decoding of pipelined reads, there are no more fetch
+     * threads than requests the server is sent at once and work that doesn't get one is refused
+     */
+    final ExecutorService fetchExecutor;
+    final ExecutorService decodeExecutor;
+
+    /* aborts requests still running when their deadline passes */
+    final ScheduledExecutorService timer;
+
+    /* bounds the requests in flight to the backend, shared with other stores of it */
+    final ConcurrencyLimiter limiter;
+
+    /* fails requests fast while the backend is failing, shared with other stores of it */
+    final CircuitBreaker breaker;
+
+    /* last counts and bounds responses, served stale while the circuit is open */
+    final Cache<String, QueryResponse> recent = CacheBuilder.newBuilder().maximumSize(256).build();
+
+    /* identical requests in flight, sent once and shared */
+    final SingleFlight<String, QueryResponse> queries = new SingleFlight<>();
+    final SingleFlight<String, VoyagerFeatureReader.Page> pages = new SingleFlight<>();
+
+    /* pages read recently, null when not cached */
+    final ResultCache results;
+
+    /* geometries decoded recently, null when not cached */
+    final GeometryCache geometries;
+
+    /* in memory copy of the layer reads are served from, null when not kept */
+    final Snapshot snapshot;
+
+    /* warms the result cache around tiles read, null when not prefetching */
+    final Prefetcher prefetcher;
+
+    /* geometry decoders, which keep parse state, one per thread */
+    final ThreadLocal<GeoJsonDecoder> decoders = ThreadLocal.withInitial(() -> new GeoJsonDecoder(getGeometryFactory()));
+
     public VoyagerDataStore(VoyagerConfig config) {
         this.config = config;
         this.solr = buildSolrClient(config);
-        setGeometryFactory(new GeometryFactory());
+        this.replicas = new ArrayList<>();
+        for (String replica : config.replicas) {
+            replicas.add(buildSolrClient(config, config.solrUri(replica)));
+        }
+        this.hedging = new HedgePolicy(config);
+        this.dictionary = new ValueDictionary(config.dictionarySize);
+        this.limiter = ConcurrencyLimiter.of(config);
+        this.breaker = CircuitBreaker.of(config);
+        this.results = config.resultCacheSize > 0 ? new ResultCache(config) : null;
+        this.geometries = config.geometryCacheSize > 0 ? new GeometryCache(config) : null;
+        this.snapshot = config.snapshot ? new Snapshot(this) : null;
+        this.prefetcher = config.prefetchBudget > 0 && results != null ? new Prefetcher(this) : null;
+        this.fetchExecutor = new ThreadPoolExecutor(0, Math.max(1, config.maxConcurrency), 60, TimeUnit.SECONDS,
+            new SynchronousQueue<>(), new ThreadFactoryBuilder().setDaemon(true).setNameFormat("voyager-fetch-%d").build());
+        this.decodeExecutor = Executors.newFixedThreadPool(Math.max(1, config.decodeThreads),
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("voyager-decode-%d").build());
+        this.timer = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("voyager-deadline-%d").build());
+        // packed sequences hold coordinates in a single array rather than an object per vertex
+        setGeometryFactory(new GeometryFactory(
+            config.precision > 0 ? new PrecisionModel(config.precision) : new PrecisionModel(),
+            0, PackedCoordinateSequenceFactory.DOUBLE_FACTORY));
     }
 
     SolrClient buildSolrClient(VoyagerConfig config) {
-        String uri = config.solrUri();
+        return buildSolrClient(config, config.solrUri());
+    }
+
+    SolrClient buildSolrClient(VoyagerConfig config, String uri) {
         if (uri.startsWith("http")) {
             // TODO: make this configurable
-            HttpSolrClient solr = new HttpSolrClient.Builder()
+            HttpSolrClient solr = new VoyagerSolrClient(new HttpSolrClient.Builder()
                 .withBaseSolrUrl(uri)
                 .allowCompression(true)
                 .withConnectionTimeout(config.timeout)
-                .withSocketTimeout(config.timeout)
-                .build();
+                .withSocketTimeout(config.timeout));
             solr.setFollowRedirects(true);
             return solr;
         }
@@ -72,20 +183,66 @@ public class VoyagerDataStore extends ContentDataStore  {
         return new VoyagerFeatureSource(ensureEntry(entry.getName()), this);
     }
 
+    GeoJsonDecoder decoder() {
+        return decoders.get();
+    }
+
     public FilterCapabilities filterCapabilities() {
         return new FilterToSolr(null, config).getCapabilities();
     }
 
     SolrQuery query(SimpleFeatureType schema, Query q) throws Exception {
+        VoyagerEvents.Stage plan = VoyagerEvents.INSTANCE.begin(VoyagerEvents.Kind.PLAN, config.index);
         SolrQuery query = new SolrQuery();
-        query.setParam("omitHeader", true);
-        query.addField("*");
-        query.addField(config.geoField + ":[geo]");
+        if (config.slowQueryTime <= 0) {
+            // the header is only needed for the solr time of slow queries, and to tell partial
+            // results apart, which the deadline keeps it for
+            query.setParam(CommonParams.OMIT_HEADER, true);
+        }
+        Deadline.of(q, config).apply(query);
 
-        // Column names
-        if (q.getPropertyNames() != null) {
-            for (String prop : q.getPropertyNames()) {
-                if (config.includesField(prop)) query.addField(prop);
+        // Column names, only the fields the features are built from so wide documents don't
+        // come back whole. Geometries filled in from the cache are listed explicitly too, * would
+        // bring back the stored geo field rather than leave it out
+        boolean geometry = true;
+        boolean cached = config.geometryCacheSize > 0 && !config.hasPointFields()
+            && config.strategy() != SpatialStrategy.LATLON_POINT;
+        if (q.retrieveAllProperties() && config.minFieldDensity <= 0 && !cached) {
+            query.addField("*");
+        }
+        else {
+            query.addField(config.uniqueIdField);
+            String[] props = q.retrieveAllProperties()
+                ? schema.getAttributeDescriptors().stream().map(AttributeDescriptor::getLocalName).toArray(String[]::new)
+                : q.getPropertyNames();
+            geometry = false;
+            for (String prop : props) {
+                if (prop.equals(config.geoField)) {
+                    geometry = true;
+                }
+                else if (config.includesField(prop) && !prop.equals(config.uniqueIdField)) {
+                    query.addField(prop);
+                }
+            }
+        }
+
+        if (geometry) {
+            if (config.hasPointFields()) {
+                // points are built straight from the numeric values
+                query.addField(config.latField);
+                query.addField(config.lonField);
+            }
+            else if (config.strategy() == SpatialStrategy.LATLON_POINT) {
+                // points come back as "lat,lon" which is quicker to parse than geojson
+                query.addField(config.geoField);
+            }
+            else if (cached) {
+                // left out, the reader fills geometries in from the cache or fetches them if
+                // the version of the document isn't cached
+                query.addField(VERSION_FIELD);
+            }
+            else {
+                query.addField(config.geoField + ":[geo]");
             }
         }
         query.setQuery("*:*");
@@ -122,11 +279,8 @@ public class VoyagerDataStore extends ContentDataStore  {
         query.addSort(config.uniqueIdField, naturalSortOrder);
 
         // Encode OGC filer
-        FilterToSolr f2s = new FilterToSolr(schema, config);
-
         Filter simplified = SimplifyingFilterVisitor.simplify(q.getFilter(), schema);
-        String fq = f2s.encodeToString(simplified);
-        if (fq != null && !fq.isEmpty()) {
+        for (String fq : new FilterQueryPlanner(schema, config).plan(simplified)) {
             query.addFilterQuery(fq);
         }
 
@@ -138,9 +292,207 @@ public class VoyagerDataStore extends ContentDataStore  {
             });
         }
 
+        // size of the encoded filter
+        long length = 0;
+        for (String fq : Optional.ofNullable(query.getFilterQueries()).orElse(new String[0])) {
+            length += fq.length();
+        }
+        plan.end(0, length);
         return query;
     }
 
+    /**
+     * Creates the request for a query, switching to POST when the encoded parameters are too
+     * long to safely send on the url (eg. large terms lists from feature id selections).
+     */
+    QueryRequest request(SolrParams params) {
+        int length = 0;
+        for (Iterator<String> it = params.getParameterNamesIterator(); it.hasNext(); ) {
+            String[] values = params.getParams(it.next());
+            if (values != null) {
+                for (String v : values) length += v.length();
+            }
+        }
+        return length > MAX_GET_LENGTH
+                ? new QueryRequest(params, SolrRequest.METHOD.POST)
+                : new QueryRequest(params);
+    }
+
+    /**
+     * Sends a request, once the circuit breaker and the concurrency limiter of the backend let it
+     * through, aborting it if it's still running when the deadline passes. Queries are hedged to a
+     * replica when they are slow to answer and replicas are configured. All requests to solr go
+     * through here.
+     *
+     * @param priority Scheduling class of the request.
+     * @param listener Called with the http method of the request before it's sent, so the caller
+     *                 can abort it, may be null.
+     */
+    @SuppressWarnings("unchecked")
+    <T extends SolrResponse> T process(SolrRequest<T> req, Deadline deadline, Priority priority,
+                                       Consumer<HttpRequestBase> listener) throws IOException, SolrServerException {
+        deadline.check();
+        boolean probe = breaker.acquire();
+        long start;
+        try {
+            start = limiter.acquire(deadline.remaining(), priority);
+        }
+        catch (IOException e) {
+            breaker.cancel(probe);
+            throw e;
+        }
+
+        // backend latency is the time to the first byte of the response, the rest of it is read
+        // as fast as the consumer takes it
+        ResponseParser parser = req.getResponseParser();
+        FirstByteResponseParser timing = FirstByteResponseParser.time(req);
+        boolean overload = false;
+        try {
+            if (!replicas.isEmpty() && req instanceof QueryRequest) {
+                return (T) new HedgedRequest(this, (QueryRequest) req, deadline, listener).process();
+            }
+            return send(solr, req, deadline, listener);
+        }
+        catch (SolrServerException | IOException | RuntimeException e) {
+            overload = overloaded(e);
+            throw e;
+        }
+        finally {
+            req.setResponseParser(parser);
+            long latency = timing.since(start);
+            limiter.release(overload, priority, latency);
+            breaker.release(probe, overload, latency);
+        }
+    }
+
+    /**
+     * Sends a query, sharing the response with identical queries that are in flight at the same
+     * time, eg. the counts and bounds of the tiles of a map. While the circuit of the backend is
+     * open the last response to the same query is returned instead, if there is one.
+     */
+    QueryResponse processShared(QueryRequest req, Deadline deadline, Priority priority)
+        throws IOException, SolrServerException {
+        String key = SingleFlight.key(req.getPath(), req.getParams());
+        try {
+            QueryResponse rsp;
+            try {
+                rsp = queries.run(key, deadline.remaining(), () -> process(req, deadline, priority, null));
+            }
+            catch (CancellationException e) {
+                // the shared query ran out of the time of its caller, this one may have more left
+                deadline.check();
+                rsp = process(req, deadline, priority, null);
+            }
+            recent.put(key, rsp);
+            return rsp;
+        }
+        catch (CircuitOpenException e) {
+            QueryResponse stale = recent.getIfPresent(key);
+            if (stale == null) {
+                throw e;
+            }
+            if (LOG.isLoggable(Level.FINE)) {
+                LOG.fine("Serving stale response, " + e.getMessage());
+            }
+            return stale;
+        }
+        catch (Exception e) {
+            Throwables.propagateIfPossible(e, IOException.class, SolrServerException.class);
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Sends a request to the backend or one of its replicas, aborting it if it's still running
+     * when the deadline passes and failing it if solr ran out of the time allowed.
+     */
+    <T extends SolrResponse> T send(SolrClient solr, SolrRequest<T> req, Deadline deadline,
+                                    Consumer<HttpRequestBase> listener) throws IOException, SolrServerException {
+        if (!(solr instanceof VoyagerSolrClient) || (!deadline.isBounded() && listener == null)) {
+            return Deadline.complete(req.process(solr));
+        }
+
+        VoyagerSolrClient client = (VoyagerSolrClient) solr;
+        AtomicReference<HttpRequestBase> method = new AtomicReference<>();
+        client.track(req, m -> {
+            method.set(m);
+            if (listener != null) {
+                listener.accept(m);
+            }
+        });
+
+        ScheduledFuture<?> abort = null;
+        if (deadline.isBounded()) {
+            abort = timer.schedule(() -> {
+                HttpRequestBase m = method.get();
+                if (m != null) {
+                    m.abort();
+                }
+            }, deadline.remaining(), TimeUnit.MILLISECONDS);
+        }
+        try {
+            T rsp = req.process(solr);
+            // solr stops at timeAllowed and returns what it has so far, which is incomplete
+            deadline.check();
+            return Deadline.complete(rsp);
+        }
+        catch (SolrServerException | IOException | RuntimeException e) {
+            if (deadline.expired()) {
+                InterruptedIOException timeout = new InterruptedIOException("Deadline of Voyager request expired");
+                timeout.initCause(e);
+                throw timeout;
+            }
+            throw e;
+        }
+        finally {
+            client.untrack(req);
+            if (abort != null) {
+                abort.cancel(false);
+            }
+        }
+    }
+
+    /*
+     * The next replica to hedge to, round robin.
+     */
+    SolrClient replica() {
+        return replicas.get(Math.floorMod(nextReplica.getAndIncrement(), replicas.size()));
+    }
+
+    /*
+     * Whether a failed request points at an overloaded backend, it timed out or was refused
+     * rather than rejected for what it asked.
+     */
+    static boolean overloaded(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof SocketTimeoutException || t instanceof ConnectException
+                || t instanceof ConnectTimeoutException) {
+                return true;
+            }
+            if (t instanceof SolrException) {
+                int code = ((SolrException) t).code();
+                return code == 503 || code == 429;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The version of the index, which changes with every commit, or null if it isn't known.
+     */
+    String indexVersion() throws IOException, SolrServerException {
+        ModifiableSolrParams params = new ModifiableSolrParams();
+        params.set("show", "index");
+        params.set("numTerms", 0);
+        QueryRequest req = new QueryRequest(params);
+        req.setPath("/admin/luke");
+
+        NamedList<?> index = (NamedList<?>) process(req, Deadline.NONE, Priority.INTERACTIVE, null)
+            .getResponse().get("index");
+        Object version = index != null ? index.get("version") : null;
+        return version != null ? version.toString() : null;
+    }
+
     Optional<List<String>> parseFilterFromViewParams(Map<String, String> viewParams) {
         String fq = viewParams.get("FQ");
         if (!Strings.isNullOrEmpty(fq)) {
@@ -164,10 +516,17 @@ public class VoyagerDataStore extends ContentDataStore  {
     @Override
     public void dispose() {
         super.dispose();
-        try {
-            solr.close();
-        } catch (IOException e) {
-            LOG.log(Level.WARNING, "Error closing solr client", e);
+        fetchExecutor.shutdownNow();
+        decodeExecutor.shutdownNow();
+        timer.shutdownNow();
+        limiter.dispose(config.uri);
+        breaker.dispose();
+        for (SolrClient client : Lists.asList(solr, replicas.toArray(new SolrClient[0]))) {
+            try {
+                client.close();
+            } catch (IOException e) {
+                LOG.log(Level.WARNING, "Error closing solr client", e);
+            }
         }
     }
 }
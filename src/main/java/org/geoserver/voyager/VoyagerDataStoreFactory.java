@@ -10,6 +10,7 @@ import org.geotools.util.KVP;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URL;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Map;
 import java.util.Optional;
@@ -25,18 +26,134 @@ public class VoyagerDataStoreFactory implements DataStoreFactorySpi {
     public static final Param GEO_FIELD = new Param("geoField", String.class, "Geo Field", true,
             "geohash");
 
+    public static final Param SPATIAL_STRATEGY = new Param("spatialStrategy", String.class,
+            "Spatial Strategy of the Geo Field (RPT, LATLON_POINT or BBOX), Detected if not Specified",
+            false, (Object)null, new KVP("level", "advanced", "options", Arrays.asList("RPT", "LATLON_POINT", "BBOX")));
+
+    public static final Param LAT_FIELD = new Param("latField", String.class,
+            "Numeric Latitude Field of Point Geometries", false, (Object)null, new KVP("level", "advanced"));
+
+    public static final Param LON_FIELD = new Param("lonField", String.class,
+            "Numeric Longitude Field of Point Geometries", false, (Object)null, new KVP("level", "advanced"));
+
+    public static final Param PRECISION = new Param("precision", Double.class,
+            "Scale of a Fixed Precision Model for Geometries, eg. 1000000 for 6 Decimals (0 for Full Precision)",
+            false, 0d, new KVP("level", "advanced"));
+
     public static final Param FILTERS = new Param("filters", String.class,
             "Comma-separated List of Filters Queries", false);
 
     public static final Param TIMEOUT = new Param("timeout", Integer.class,
             "Server Request Timeout", false, 10000);
 
+    public static final Param MAX_QUERY_TIME = new Param("maxQueryTime", Long.class,
+            "Maximum Time in Milliseconds a Read May Take (0 for No Limit)", false, 0L,
+            new KVP("level", "advanced"));
+
+    public static final Param MAX_CONCURRENCY = new Param("maxConcurrency", Integer.class,
+            "Maximum Number of Concurrent Requests to the Server", false, 64, new KVP("level", "advanced"));
+
+    public static final Param MAX_QUEUE_WAIT = new Param("maxQueueWait", Long.class,
+            "Maximum Time in Milliseconds a Request Waits when the Server is Busy", false, 1000L,
+            new KVP("level", "advanced"));
+
+    public static final Param BULK_SHARE = new Param("bulkShare", Double.class,
+            "Share of Concurrent Requests Available to Bulk Reads", false, 0.5, new KVP("level", "advanced"));
+
+    public static final Param BULK_THRESHOLD = new Param("bulkThreshold", Integer.class,
+            "Number of Features after which a Read is Scheduled as Bulk", false, 10000,
+            new KVP("level", "advanced"));
+
+    public static final Param REPLICAS = new Param("replicas", String.class,
+            "Comma separated URLs of Voyager Replicas that Slow Requests are Hedged to", false, (Object)null,
+            new KVP("level", "advanced"));
+
+    public static final Param HEDGE_PERCENTILE = new Param("hedgePercentile", Double.class,
+            "Percentile of Recent Latency after which Requests are Hedged (0 to Not Hedge)", false, 0d,
+            new KVP("level", "advanced"));
+
+    public static final Param HEDGE_BUDGET = new Param("hedgeBudget", Double.class,
+            "Most Hedged Requests as a Fraction of All Requests", false, 0.05, new KVP("level", "advanced"));
+
+    public static final Param RESULT_CACHE_SIZE = new Param("resultCacheSize", Long.class,
+            "Bytes of Recently Read Pages to Cache (0 to Not Cache)", false, 0L, new KVP("level", "advanced"));
+
+    public static final Param RESULT_CACHE_CHECK = new Param("resultCacheCheck", Long.class,
+            "Milliseconds between Checks of the Index Version that Drop the Cached Pages when it Changes", false,
+            10000L, new KVP("level", "advanced"));
+
+    public static final Param GEOMETRY_CACHE_SIZE = new Param("geometryCacheSize", Long.class,
+            "Bytes of Decoded Geometries to Cache (0 to Not Cache)", false, 0L, new KVP("level", "advanced"));
+
+    public static final Param SNAPSHOT = new Param("snapshot", Boolean.class,
+            "Keep a Copy of the Layer in Memory and Serve Reads from it", false, false, new KVP("level", "advanced"));
+
+    public static final Param SNAPSHOT_MAX_FEATURES = new Param("snapshotMaxFeatures", Integer.class,
+            "Largest Number of Features Kept in Memory", false, 2000000, new KVP("level", "advanced"));
+
+    public static final Param SNAPSHOT_MODIFIED_FIELD = new Param("snapshotModifiedField", String.class,
+            "Date Field Holding the Time a Document was Last Modified, to Refresh the Copy with Changes Only", false,
+            (Object)null, new KVP("level", "advanced"));
+
+    public static final Param SNAPSHOT_REFRESH = new Param("snapshotRefresh", Long.class,
+            "Milliseconds between Checks for Changes to the Layer Kept in Memory", false, 60000L,
+            new KVP("level", "advanced"));
+
+    public static final Param PREFETCH_BUDGET = new Param("prefetchBudget", Integer.class,
+            "Most Neighbouring Tiles Read into the Result Cache at Once (0 to Not Prefetch)", false, 0,
+            new KVP("level", "advanced"));
+
+    public static final Param PREFETCH_ZOOM = new Param("prefetchZoom", Boolean.class,
+            "Also Prefetch the Tiles of the Next Zoom Level", false, false, new KVP("level", "advanced"));
+
+    public static final Param SLOW_QUERY_TIME = new Param("slowQueryTime", Long.class,
+            "Milliseconds after which Reads are Logged to the voyager.slow Log with their Timings (0 to Not Log)",
+            false, 0L, new KVP("level", "advanced"));
+
+    public static final Param BREAKER_FAILURE_RATE = new Param("breakerFailureRate", Double.class,
+            "Share of Failing Requests that Stops Requests to the Server for a While (0 to Never Stop)", false, 0.5,
+            new KVP("level", "advanced"));
+
+    public static final Param BREAKER_OPEN_TIME = new Param("breakerOpenTime", Long.class,
+            "Time in Milliseconds Requests to a Failing Server are Stopped for", false, 10000L,
+            new KVP("level", "advanced"));
+
+    public static final Param BREAKER_SLOW_CALL_TIME = new Param("breakerSlowCallTime", Long.class,
+            "Time in Milliseconds to the First Byte of a Response after which a Request Counts as Failing (0 to Ignore Latency)", false, 5000L,
+            new KVP("level", "advanced"));
+
     public static final Param PAGE_SIZE = new Param("pageSize", Integer.class,
             "Request Page Size", false, 100);
 
+    public static final Param MAX_PAGE_SIZE = new Param("maxPageSize", Integer.class,
+            "Maximum Request Page Size", false, 5000, new KVP("level", "advanced"));
+
+    public static final Param PAGE_BYTES = new Param("pageBytes", Long.class,
+            "Target Response Size in Bytes when Growing Pages", false, 4 * 1024 * 1024L,
+            new KVP("level", "advanced"));
+
     public static final Param FIELD_BLACKLIST = new Param("fieldBlacklist", String.class,
             "Comma-separated List of Fields to Exclude", false);
 
+    public static final Param MIN_FIELD_DENSITY = new Param("minFieldDensity", Double.class,
+            "Fraction of Documents a Field must be Populated in to be Published (0 for All Fields)", false, 0d,
+            new KVP("level", "advanced"));
+
+    public static final Param DICTIONARY_SIZE = new Param("dictionarySize", Integer.class,
+            "Number of Distinct Values per Field Shared Between Features (0 to Disable)", false, 1024,
+            new KVP("level", "advanced"));
+
+    public static final Param DECODE_THREADS = new Param("decodeThreads", Integer.class,
+            "Number of Threads Decoding Features of Bulk Reads (0 to Decode on the Reading Thread)", false,
+            0, new KVP("level", "advanced"));
+
+    public static final Param REAL_TIME_GET = new Param("realTimeGet", Boolean.class,
+            "Use Real-Time Get for Feature Id Lookups and Geometries Left out of Pages", false, true, new KVP("level", "advanced"));
+
+    public static final Param SPLIT_FILTER_QUERIES = new Param("splitFilterQueries", Boolean.class,
+            "Send Each Top Level Filter Clause as a Separate Filter Query", false, true,
+            new KVP("level", "advanced"));
+
     public static final Param NAMESPACE = new Param("namespace", URI.class, "Namespace URI", false, (Object)null, new KVP(new Object[]{"level", "advanced"}));
 
     static final Splitter SPLITTER = Splitter.on(Pattern.compile("\\s*,\\s*"));
@@ -53,7 +170,13 @@ public class VoyagerDataStoreFactory implements DataStoreFactorySpi {
 
     @Override
     public Param[] getParametersInfo() {
-        return new Param[]{ URL, INDEX, GEO_FIELD, FILTERS, TIMEOUT, PAGE_SIZE, FIELD_BLACKLIST, NAMESPACE };
+        return new Param[]{ URL, INDEX, GEO_FIELD, SPATIAL_STRATEGY, LAT_FIELD, LON_FIELD, PRECISION, FILTERS,
+            TIMEOUT, MAX_QUERY_TIME, MAX_CONCURRENCY, MAX_QUEUE_WAIT, BULK_SHARE, BULK_THRESHOLD,
+            BREAKER_FAILURE_RATE, BREAKER_OPEN_TIME, BREAKER_SLOW_CALL_TIME, PAGE_SIZE, FIELD_BLACKLIST, MIN_FIELD_DENSITY, DICTIONARY_SIZE, MAX_PAGE_SIZE, PAGE_BYTES,
+            DECODE_THREADS, REAL_TIME_GET, SPLIT_FILTER_QUERIES, REPLICAS, HEDGE_PERCENTILE, HEDGE_BUDGET,
+            RESULT_CACHE_SIZE, RESULT_CACHE_CHECK, GEOMETRY_CACHE_SIZE, SNAPSHOT,
+            SNAPSHOT_MAX_FEATURES, SNAPSHOT_MODIFIED_FIELD, SNAPSHOT_REFRESH, PREFETCH_BUDGET, PREFETCH_ZOOM,
+            SLOW_QUERY_TIME, NAMESPACE };
     }
 
     @Override
@@ -68,12 +191,46 @@ public class VoyagerDataStoreFactory implements DataStoreFactorySpi {
             config.uri = param(URL, params, URL.class).toURI().toString();
             config.index = param(INDEX, params, String.class);
             config.geoField = param(GEO_FIELD, params, String.class);
+            config.spatialStrategy = Optional.ofNullable(param(SPATIAL_STRATEGY, params, String.class))
+                    .map(s -> SpatialStrategy.valueOf(s.trim().toUpperCase())).orElse(null);
+            config.precision = param(PRECISION, params, Double.class);
+            config.latField = param(LAT_FIELD, params, String.class);
+            config.lonField = param(LON_FIELD, params, String.class);
             config.timeout = param(TIMEOUT, params, Integer.class);
+            config.maxQueryTime = param(MAX_QUERY_TIME, params, Long.class);
+            config.maxConcurrency = param(MAX_CONCURRENCY, params, Integer.class);
+            config.maxQueueWait = param(MAX_QUEUE_WAIT, params, Long.class);
+            config.bulkShare = param(BULK_SHARE, params, Double.class);
+            config.bulkThreshold = param(BULK_THRESHOLD, params, Integer.class);
+            config.breakerFailureRate = param(BREAKER_FAILURE_RATE, params, Double.class);
+            config.breakerOpenTime = param(BREAKER_OPEN_TIME, params, Long.class);
+            config.breakerSlowCallTime = param(BREAKER_SLOW_CALL_TIME, params, Long.class);
             config.pageSize = param(PAGE_SIZE, params, Integer.class);
+            config.maxPageSize = Math.max(config.pageSize, param(MAX_PAGE_SIZE, params, Integer.class));
+            config.pageBytes = param(PAGE_BYTES, params, Long.class);
             config.filters = Optional.ofNullable(param(FILTERS, params, String.class))
                     .map(SPLITTER::splitToList).orElse(Collections.emptyList());
             config.fieldBlacklist = Optional.ofNullable(param(FIELD_BLACKLIST, params, String.class))
                     .map(SPLITTER::splitToList).orElse(Collections.emptyList());
+            config.minFieldDensity = param(MIN_FIELD_DENSITY, params, Double.class);
+            config.dictionarySize = param(DICTIONARY_SIZE, params, Integer.class);
+            config.decodeThreads = param(DECODE_THREADS, params, Integer.class);
+            config.realTimeGet = param(REAL_TIME_GET, params, Boolean.class);
+            config.splitFilterQueries = param(SPLIT_FILTER_QUERIES, params, Boolean.class);
+            config.replicas = Optional.ofNullable(param(REPLICAS, params, String.class))
+                    .map(SPLITTER::splitToList).orElse(Collections.emptyList());
+            config.hedgePercentile = param(HEDGE_PERCENTILE, params, Double.class);
+            config.hedgeBudget = param(HEDGE_BUDGET, params, Double.class);
+            config.resultCacheSize = param(RESULT_CACHE_SIZE, params, Long.class);
+            config.resultCacheCheck = param(RESULT_CACHE_CHECK, params, Long.class);
+            config.geometryCacheSize = param(GEOMETRY_CACHE_SIZE, params, Long.class);
+            config.snapshot = param(SNAPSHOT, params, Boolean.class);
+            config.snapshotMaxFeatures = param(SNAPSHOT_MAX_FEATURES, params, Integer.class);
+            config.snapshotModifiedField = param(SNAPSHOT_MODIFIED_FIELD, params, String.class);
+            config.snapshotRefresh = param(SNAPSHOT_REFRESH, params, Long.class);
+            config.prefetchBudget = param(PREFETCH_BUDGET, params, Integer.class);
+            config.prefetchZoom = param(PREFETCH_ZOOM, params, Boolean.class);
+            config.slowQueryTime = param(SLOW_QUERY_TIME, params, Long.class);
 
             VoyagerDataStore store = new VoyagerDataStore(config);
             Optional.ofNullable(NAMESPACE.lookUp(params)).map(Object::toString).ifPresent(store::setNamespaceURI);
@@ -0,0 +1,105 @@
+package org.geoserver.voyager;
+
+import org.geoserver.config.GeoServer;
+import org.geoserver.config.ServiceInfo;
+import org.geoserver.ows.AbstractDispatcherCallback;
+import org.geoserver.ows.Request;
+import org.geoserver.ows.util.OwsUtils;
+import org.geoserver.platform.Operation;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Binds the priority, deadline and description of an ows request to the thread handling it, so
+ * the reads it makes from Voyager layers are scheduled, bounded and traced by it.
+ * <p>
+ * Maps, feature info and legends are interactive, other requests get their priority from the
+ * size of their reads. Maps GeoWebCache renders while seeding a layer are bulk, no one is waiting
+ * on them. Requests to a service with a maximum rendering time, like WMS, have to finish within
+ * it.
+ * </p>
+ */
+public class VoyagerDispatcherCallback extends AbstractDispatcherCallback {
+
+    static final Set<String> INTERACTIVE = new HashSet<>(Arrays.asList("GETMAP", "GETFEATUREINFO", "GETLEGENDGRAPHIC"));
+
+    /* prefix of the names of the threads GeoWebCache seeds and reseeds layers on */
+    static final String SEEDER_THREAD = "GWC Seeder Thread-";
+
+    final GeoServer geoServer;
+
+    public VoyagerDispatcherCallback(GeoServer geoServer) {
+        this.geoServer = geoServer;
+    }
+
+    @Override
+    public Operation operationDispatched(Request request, Operation operation) {
+        String name = request.getRequest();
+        if (seeding()) {
+            Priority.bind(Priority.BULK);
+        }
+        else if (name != null && INTERACTIVE.contains(name.toUpperCase())) {
+            Priority.bind(Priority.INTERACTIVE);
+        }
+        Deadline deadline = deadline(request.getService());
+        if (deadline.isBounded()) {
+            Deadline.bind(deadline);
+        }
+        QueryTrace.bind(describe(request));
+        return operation;
+    }
+
+    @Override
+    public void finished(Request request) {
+        Priority.unbind();
+        Deadline.unbind();
+        QueryTrace.unbind();
+    }
+
+    /**
+     * Whether the request is dispatched by GeoWebCache seeding a layer, which renders its
+     * metatiles as map requests on its own threads.
+     */
+    static boolean seeding() {
+        return Thread.currentThread().getName().startsWith(SEEDER_THREAD);
+    }
+
+    /**
+     * Deadline of a request to a service, from the maximum rendering time of the service if it
+     * has one.
+     */
+    Deadline deadline(String service) {
+        if (service == null || geoServer == null) {
+            return Deadline.NONE;
+        }
+        for (ServiceInfo info : geoServer.getServices()) {
+            if (service.equalsIgnoreCase(info.getName()) && OwsUtils.has(info, "maxRenderingTime")) {
+                Object seconds = OwsUtils.get(info, "maxRenderingTime");
+                return seconds instanceof Number ? Deadline.in(((Number) seconds).longValue() * 1000) : Deadline.NONE;
+            }
+        }
+        return Deadline.NONE;
+    }
+
+    /**
+     * Description of a request for the slow query log, its service, operation and layers.
+     */
+    static String describe(Request request) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(request.getService()).append(' ').append(request.getRequest());
+        Map<String, Object> kvp = request.getRawKvp();
+        if (kvp != null) {
+            for (String key : new String[]{"LAYERS", "TYPENAMES", "TYPENAME"}) {
+                Object layers = kvp.get(key);
+                if (layers != null) {
+                    sb.append(' ').append(layers);
+                    break;
+                }
+            }
+        }
+        return sb.toString();
+    }
+}
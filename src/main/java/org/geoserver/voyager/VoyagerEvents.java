@@ -0,0 +1,76 @@
+package org.geoserver.voyager;
+
+import java.util.logging.Level;
+
+import static org.geoserver.voyager.VoyagerDataStore.LOG;
+
+/**
+ * Flight recorder events of the stages of a read, so they can be lined up against garbage
+ * collection and cpu in the same recording.
+ * <p>
+ * The events themselves are only built on jdks that have the flight recorder, and are loaded when
+ * it's available at runtime. Elsewhere every stage is a no-op.
+ * </p>
+ */
+public abstract class VoyagerEvents {
+
+    public enum Kind {
+        PLAN, FETCH, DECODE, COUNT, BOUNDS
+    }
+
+    /**
+     * A stage of a read in progress.
+     */
+    public interface Stage {
+        void end(long documents, long bytes);
+    }
+
+    static final Stage NONE = (documents, bytes) -> {};
+
+    static final VoyagerEvents INSTANCE = load();
+
+    /**
+     * Starts a stage of a read of a layer.
+     */
+    public abstract Stage begin(Kind kind, String layer);
+
+    /**
+     * Whether post filtering is recorded, timing it isn't free.
+     */
+    public abstract boolean recordsPostFilter();
+
+    /**
+     * Records the post filtering of a read once it's complete.
+     *
+     * @param nanos Time spent evaluating the filter.
+     */
+    public abstract void postFiltered(String layer, long evaluated, long matched, long nanos);
+
+    static VoyagerEvents load() {
+        try {
+            Class.forName("jdk.jfr.Event");
+            return (VoyagerEvents) Class.forName("org.geoserver.voyager.JfrEvents").getDeclaredConstructor().newInstance();
+        }
+        catch (ClassNotFoundException | LinkageError e) {
+            // no flight recorder, or built without the events
+        }
+        catch (Exception e) {
+            LOG.log(Level.WARNING, "Unable to load flight recorder events", e);
+        }
+        return new VoyagerEvents() {
+            @Override
+            public Stage begin(Kind kind, String layer) {
+                return NONE;
+            }
+
+            @Override
+            public boolean recordsPostFilter() {
+                return false;
+            }
+
+            @Override
+            public void postFiltered(String layer, long evaluated, long matched, long nanos) {
+            }
+        };
+    }
+}
@@ -0,0 +1,318 @@
+package org.geoserver.voyager;
+
+import org.apache.solr.common.SolrDocument;
+import org.geotools.feature.AttributeImpl;
+import org.geotools.feature.GeometryAttributeImpl;
+import org.geotools.feature.type.AttributeDescriptorImpl;
+import org.geotools.feature.type.Types;
+import org.geotools.filter.identity.FeatureIdImpl;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.locationtech.jts.geom.Geometry;
+import org.opengis.feature.GeometryAttribute;
+import org.opengis.feature.IllegalAttributeException;
+import org.opengis.feature.Property;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.feature.type.AttributeDescriptor;
+import org.opengis.feature.type.GeometryDescriptor;
+import org.opengis.feature.type.Name;
+import org.opengis.filter.identity.FeatureId;
+import org.opengis.geometry.BoundingBox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Feature backed directly by a solr document.
+ * <p>
+ * Attributes are addressed by index through the field mapping of the reader that created the
+ * feature and are only decoded, and converted to the attribute binding, the first time they are
+ * accessed. A renderer that only looks at the geometry and a styling attribute never pays for
+ * the rest of the document.
+ * </p>
+ * <p>
+ * The document itself holds the values, so a feature only takes space for the fields that are
+ * populated, whatever the width of the schema. Decoded values replace the raw ones in the
+ * document and a bit per attribute records which have been decoded.
+ * </p>
+ */
+public class VoyagerFeature implements SimpleFeature {
+
+    final VoyagerFeatureReader reader;
+    final SolrDocument doc;
+    final FeatureId id;
+
+    /* attributes already decoded */
+    final BitSet resolved = new BitSet();
+
+    Map<Object, Object> userData;
+
+    VoyagerFeature(VoyagerFeatureReader reader, SolrDocument doc, String fid) {
+        this.reader = reader;
+        this.doc = doc;
+        this.id = new FeatureIdImpl(fid);
+    }
+
+    @Override
+    public String getID() {
+        return id.getID();
+    }
+
+    @Override
+    public FeatureId getIdentifier() {
+        return id;
+    }
+
+    @Override
+    public SimpleFeatureType getType() {
+        return reader.type;
+    }
+
+    @Override
+    public SimpleFeatureType getFeatureType() {
+        return reader.type;
+    }
+
+    @Override
+    public Object getAttribute(int index) throws IndexOutOfBoundsException {
+        String field = reader.fields[index];
+        if (resolved.get(index)) {
+            return doc.get(field);
+        }
+
+        Object v = reader.value(doc, index);
+        if (v != null) {
+            doc.put(field, v);
+        }
+        else {
+            // resolved attributes are read straight off the document, so the raw value has to go
+            doc.remove(field);
+        }
+        resolved.set(index);
+        return v;
+    }
+
+    @Override
+    public void setAttribute(int index, Object value) throws IndexOutOfBoundsException {
+        String field = reader.fields[index];
+        if (value != null) {
+            doc.put(field, value);
+        }
+        else {
+            doc.remove(field);
+        }
+        resolved.set(index);
+    }
+
+    @Override
+    public Object getAttribute(String name) {
+        int i = reader.type.indexOf(name);
+        return i != -1 ? getAttribute(i) : null;
+    }
+
+    @Override
+    public void setAttribute(String name, Object value) {
+        int i = reader.type.indexOf(name);
+        if (i == -1) {
+            throw new IllegalAttributeException(null, null, "Unknown attribute " + name);
+        }
+        setAttribute(i, value);
+    }
+
+    @Override
+    public Object getAttribute(Name name) {
+        int i = reader.type.indexOf(name);
+        return i != -1 ? getAttribute(i) : null;
+    }
+
+    @Override
+    public void setAttribute(Name name, Object value) {
+        int i = reader.type.indexOf(name);
+        if (i == -1) {
+            throw new IllegalAttributeException(null, null, "Unknown attribute " + name);
+        }
+        setAttribute(i, value);
+    }
+
+    @Override
+    public List<Object> getAttributes() {
+        List<Object> list = new ArrayList<>(getAttributeCount());
+        for (int i = 0; i < getAttributeCount(); i++) {
+            list.add(getAttribute(i));
+        }
+        return list;
+    }
+
+    @Override
+    public void setAttributes(List<Object> values) {
+        for (int i = 0; i < getAttributeCount(); i++) {
+            setAttribute(i, i < values.size() ? values.get(i) : null);
+        }
+    }
+
+    @Override
+    public void setAttributes(Object[] values) {
+        setAttributes(Arrays.asList(values));
+    }
+
+    @Override
+    public int getAttributeCount() {
+        return reader.fields.length;
+    }
+
+    @Override
+    public Object getDefaultGeometry() {
+        return reader.geometryIndex != -1 ? getAttribute(reader.geometryIndex) : null;
+    }
+
+    @Override
+    public void setDefaultGeometry(Object geometry) {
+        if (reader.geometryIndex != -1) {
+            setAttribute(reader.geometryIndex, geometry);
+        }
+    }
+
+    @Override
+    public BoundingBox getBounds() {
+        ReferencedEnvelope bounds = new ReferencedEnvelope(reader.type.getCoordinateReferenceSystem());
+        Object g = getDefaultGeometry();
+        if (g instanceof Geometry) {
+            bounds.expandToInclude(((Geometry) g).getEnvelopeInternal());
+        }
+        return bounds;
+    }
+
+    @Override
+    public GeometryAttribute getDefaultGeometryProperty() {
+        GeometryDescriptor descriptor = reader.type.getGeometryDescriptor();
+        return descriptor != null ? new GeometryAttributeImpl(getDefaultGeometry(), descriptor, null) : null;
+    }
+
+    @Override
+    public void setDefaultGeometryProperty(GeometryAttribute geometryAttribute) {
+        setDefaultGeometry(geometryAttribute != null ? geometryAttribute.getValue() : null);
+    }
+
+    @Override
+    public Collection<Property> getProperties() {
+        List<Property> props = new ArrayList<>(getAttributeCount());
+        for (int i = 0; i < getAttributeCount(); i++) {
+            props.add(property(i));
+        }
+        return props;
+    }
+
+    @Override
+    public Collection<Property> getProperties(Name name) {
+        int i = reader.type.indexOf(name);
+        return i != -1 ? Collections.singletonList(property(i)) : Collections.emptyList();
+    }
+
+    @Override
+    public Collection<Property> getProperties(String name) {
+        int i = reader.type.indexOf(name);
+        return i != -1 ? Collections.singletonList(property(i)) : Collections.emptyList();
+    }
+
+    @Override
+    public Property getProperty(Name name) {
+        int i = reader.type.indexOf(name);
+        return i != -1 ? property(i) : null;
+    }
+
+    @Override
+    public Property getProperty(String name) {
+        int i = reader.type.indexOf(name);
+        return i != -1 ? property(i) : null;
+    }
+
+    Property property(int index) {
+        AttributeDescriptor descriptor = reader.type.getDescriptor(index);
+        if (descriptor instanceof GeometryDescriptor) {
+            return new GeometryAttributeImpl(getAttribute(index), (GeometryDescriptor) descriptor, null);
+        }
+        return new AttributeImpl(getAttribute(index), descriptor, null);
+    }
+
+    @Override
+    public Collection<? extends Property> getValue() {
+        return getProperties();
+    }
+
+    @Override
+    public void setValue(Collection<Property> values) {
+        int i = 0;
+        for (Property p : values) {
+            if (i < getAttributeCount()) {
+                setAttribute(i++, p.getValue());
+            }
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void setValue(Object newValue) {
+        setValue((Collection<Property>) newValue);
+    }
+
+    @Override
+    public AttributeDescriptor getDescriptor() {
+        return new AttributeDescriptorImpl(reader.type, reader.type.getName(), 0, Integer.MAX_VALUE, true, null);
+    }
+
+    @Override
+    public Name getName() {
+        return reader.type.getName();
+    }
+
+    @Override
+    public boolean isNillable() {
+        return true;
+    }
+
+    @Override
+    public Map<Object, Object> getUserData() {
+        if (userData == null) {
+            userData = new HashMap<>();
+        }
+        return userData;
+    }
+
+    @Override
+    public void validate() throws IllegalAttributeException {
+        for (int i = 0; i < getAttributeCount(); i++) {
+            Types.validate(reader.type.getDescriptor(i), getAttribute(i));
+        }
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof SimpleFeature)) {
+            return false;
+        }
+        SimpleFeature other = (SimpleFeature) obj;
+        return Objects.equals(id, other.getIdentifier())
+            && Objects.equals(reader.type, other.getFeatureType())
+            && getAttributes().equals(other.getAttributes());
+    }
+
+    @Override
+    public int hashCode() {
+        return id.hashCode() * reader.type.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "VoyagerFeature:" + reader.type.getTypeName() + "=" + getAttributes();
+    }
+}
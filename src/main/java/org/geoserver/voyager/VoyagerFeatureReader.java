@@ -1,25 +1,40 @@
 package org.geoserver.voyager;
 
+import com.google.common.base.Throwables;
+import org.apache.http.client.methods.HttpRequestBase;
 import org.apache.solr.client.solrj.SolrClient;
 import org.apache.solr.client.solrj.SolrQuery;
 import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.StreamingResponseCallback;
+import org.apache.solr.client.solrj.impl.StreamingBinaryResponseParser;
 import org.apache.solr.client.solrj.request.QueryRequest;
 import org.apache.solr.client.solrj.response.QueryResponse;
 import org.apache.solr.common.SolrDocument;
-import org.apache.solr.common.SolrDocumentList;
+import org.apache.solr.common.params.CommonParams;
 import org.apache.solr.common.params.CursorMarkParams;
+import org.apache.solr.common.params.ModifiableSolrParams;
+import org.apache.solr.common.util.NamedList;
 import org.geotools.data.simple.SimpleFeatureReader;
-import org.geotools.feature.simple.SimpleFeatureBuilder;
-import org.geotools.geojson.geom.GeometryJSON;
+import org.geotools.util.Converters;
 import org.locationtech.jts.geom.Geometry;
 import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.simple.SimpleFeatureType;
 import org.opengis.feature.type.AttributeDescriptor;
 import org.opengis.feature.type.GeometryDescriptor;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.concurrent.CancellationException;
+import java.util.function.Consumer;
 import java.util.logging.Level;
 
 import static org.geoserver.voyager.VoyagerDataStore.LOG;
@@ -30,23 +45,84 @@ public class VoyagerFeatureReader implements SimpleFeatureReader {
     final SolrClient solr;
     final SolrQuery query;
 
-    final GeometryJSON geojson;
-    final SimpleFeatureBuilder builder;
+
+    /* type of the features read, and for each attribute its field and binding */
+    final SimpleFeatureType type;
+    final String[] fields;
+    final Class<?>[] bindings;
+    final boolean[] interned;
+    final int geometryIndex;
+
+    /* whether the geometry is left out of pages, and filled in from the geometry cache */
+    final boolean deferred;
+
+    final PageSizer pages;
+    final Integer limit;
+    final Deadline deadline;
+
+    /* priority given to the read, null to schedule it by its size */
+    final Priority priority;
 
     Iterator<SolrDocument> curr;
     String cursorMark = CursorMarkParams.CURSOR_MARK_START;
+    boolean done = false;
+
+    /* set once a page comes back short, meaning the cursor has no more results */
+    boolean exhausted = false;
+
+    /* documents in the last response, and in all of them */
+    int received;
+    long read;
+
+    /* timing of the read for the slow query log, null when not logged */
+    QueryTrace trace;
+
+    /* http method of the request in flight, aborted when the reader is closed */
+    volatile HttpRequestBase inflight;
+    volatile boolean closed = false;
 
     VoyagerFeatureReader(VoyagerFeatureSource source, SolrQuery query) {
+        this(source, source.getSchema(), query, null, Deadline.of(null, source.store.config), null);
+    }
+
+    /**
+     * @param type Type of the features to read, the schema of the source or a subset of it.
+     * @param limit Maximum number of documents to read, null for all.
+     * @param deadline Time by which the read has to finish.
+     * @param priority Priority given to the read, null to schedule it by its size.
+     */
+    VoyagerFeatureReader(VoyagerFeatureSource source, SimpleFeatureType type, SolrQuery query, Integer limit,
+                         Deadline deadline, Priority priority) {
         this.source = source;
         this.solr = source.store.solr;
         this.query = query;
-        this.geojson = new GeometryJSON();
-        this.builder = new SimpleFeatureBuilder(source.getSchema());
+        this.pages = new PageSizer(source.store.config, limit);
+        this.limit = limit;
+        this.deadline = deadline;
+        this.priority = priority;
+
+        this.type = type;
+        this.fields = new String[type.getAttributeCount()];
+        this.bindings = new Class<?>[fields.length];
+        this.interned = new boolean[fields.length];
+        int geom = -1;
+        for (int i = 0; i < fields.length; i++) {
+            AttributeDescriptor att = type.getDescriptor(i);
+            fields[i] = att.getLocalName();
+            bindings[i] = att.getType().getBinding();
+            interned[i] = bindings[i] == String.class && source.store.dictionary.accepts(fields[i]);
+            if (att instanceof GeometryDescriptor && geom == -1) {
+                geom = i;
+            }
+        }
+        this.geometryIndex = geom;
+        this.deferred = geom >= 0 && source.store.geometries != null && query.getFields() != null
+            && Arrays.asList(query.getFields().split(",")).contains(VoyagerDataStore.VERSION_FIELD);
     }
 
     @Override
     public SimpleFeatureType getFeatureType() {
-        return source.getSchema();
+        return type;
     }
 
     @Override
@@ -54,44 +130,441 @@ public class VoyagerFeatureReader implements SimpleFeatureReader {
         if (curr != null && curr.hasNext()) return true;
         curr = null;
 
+        if (!done) {
+            try {
+                curr = fetch();
+            } catch (SolrServerException e) {
+                throw new IOException(e);
+            }
+            done = curr == null;
+        }
+
+        return curr != null && curr.hasNext();
+    }
+
+    /**
+     * Fetches the next page of documents, returning <code>null</code> once all pages have been
+     * read.
+     */
+    protected Iterator<SolrDocument> fetch() throws IOException, SolrServerException {
+        List<SolrDocument> docs = new ArrayList<>();
+        while (docs.isEmpty()) {
+            if (!stream(docs::add)) {
+                return null;
+            }
+        }
+        return docs.iterator();
+    }
+
+    /**
+     * Fetches the next page of documents, handing each one to a consumer as soon as it has been
+     * parsed off the response. Returns <code>false</code> once all pages have been read.
+     */
+    protected boolean stream(Consumer<SolrDocument> consumer) throws IOException, SolrServerException {
+        if (exhausted || pages.done()) {
+            return false;
+        }
+
+        int rows = pages.next();
+        query.setRows(rows);
         query.set(CursorMarkParams.CURSOR_MARK_PARAM, cursorMark);
+        deadline.apply(query);
 
         if (LOG.isLoggable(Level.FINE)) {
             LOG.fine("Feature query: " + query);
         }
 
+        QueryResponse rsp = read(source.store.request(query), consumer);
+
+        String next = rsp.getNextCursorMark();
+        exhausted = received < rows || next == null || next.equals(cursorMark);
+        cursorMark = next;
+        return true;
+    }
+
+    /**
+     * Sends a page request. When the geometry is left out of the page the documents are held back
+     * until their geometries are filled in.
+     */
+    QueryResponse read(QueryRequest req, Consumer<SolrDocument> consumer) throws IOException, SolrServerException {
+        if (!deferred) {
+            return process(req, consumer);
+        }
+
+        List<SolrDocument> docs = new ArrayList<>();
+        QueryResponse rsp = process(req, docs::add);
+        resolve(docs);
+        docs.forEach(consumer);
+        return rsp;
+    }
+
+    /**
+     * Fills in the geometries of documents from the geometry cache, and fetches the ones that
+     * aren't cached for the version of their document in a single real-time get, or a search by
+     * unique id when the index doesn't support real-time get.
+     */
+    void resolve(List<SolrDocument> docs) throws IOException, SolrServerException {
+        VoyagerConfig config = source.store.config;
+        String field = fields[geometryIndex];
+
+        Map<String, SolrDocument> missing = new LinkedHashMap<>();
+        for (SolrDocument doc : docs) {
+            if (doc.get(field) instanceof Geometry) {
+                continue;
+            }
+            String id = doc.getFirstValue(config.uniqueIdField).toString();
+            Geometry g = source.store.geometries.get(id, doc.getFirstValue(VoyagerDataStore.VERSION_FIELD));
+            if (g != null) {
+                doc.setField(field, g);
+            }
+            else {
+                missing.put(id, doc);
+            }
+        }
+        if (missing.isEmpty()) {
+            return;
+        }
+
+        ModifiableSolrParams params = new ModifiableSolrParams();
+        params.set(CommonParams.FL, config.uniqueIdField + "," + VoyagerDataStore.VERSION_FIELD + "," + field + ":[geo]");
+        if (config.realTimeGet) {
+            for (String id : missing.keySet()) {
+                params.add("ids", VoyagerIdFeatureReader.escape(id));
+            }
+        }
+        else {
+            params.set(CommonParams.Q, idQuery(config.uniqueIdField, missing.keySet()));
+            params.set(CommonParams.ROWS, missing.size());
+        }
+        deadline.apply(params);
+
+        QueryRequest req = source.store.request(params);
+        if (config.realTimeGet) {
+            req.setPath("/get");
+        }
+        QueryResponse rsp;
         try {
-            QueryResponse rsp = new QueryRequest(query).process(solr);
-            if (!rsp.getResults().isEmpty()) {
-                curr = rsp.getResults().iterator();
-                cursorMark = rsp.getNextCursorMark();
+            rsp = source.store.process(req, deadline, priority(), m -> {
+                inflight = m;
+                if (closed) {
+                    m.abort();
+                }
+            });
+        }
+        finally {
+            inflight = null;
+        }
+
+        for (SolrDocument found : rsp.getResults()) {
+            SolrDocument doc = missing.get(found.getFirstValue(config.uniqueIdField).toString());
+            if (doc != null) {
+                // the document may have been updated since the page was read
+                doc.setField(field, found.get(field));
+                doc.setField(VoyagerDataStore.VERSION_FIELD, found.getFirstValue(VoyagerDataStore.VERSION_FIELD));
+            }
+        }
+    }
+
+    /*
+     * Query for the documents with some unique ids, a terms query unless an id has the comma
+     * separating its values.
+     */
+    static String idQuery(String field, Collection<String> ids) {
+        StringBuilder q = new StringBuilder();
+        if (ids.stream().noneMatch(id -> id.contains(","))) {
+            for (String id : ids) {
+                q.append(q.length() > 0 ? "," : "").append(FilterToSolr.escapeLocalParam(id));
             }
-        } catch (SolrServerException e) {
+            return "{!terms f=" + field + " v='" + q + "'}";
+        }
+        for (String id : ids) {
+            q.append(q.length() > 0 ? " OR " : "").append(field).append(":\"")
+                .append(id.replace("\\", "\\\\").replace("\"", "\\\"")).append('"');
+        }
+        return q.toString();
+    }
+
+    /**
+     * Sends a request, streaming the documents of the response to a consumer rather than
+     * collecting them into a document list, and sizes the next page from it.
+     * <p>
+     * Identical requests of concurrent reads, like the same page of the same query for
+     * neighbouring tiles, are sent once. The reader sending it keeps a copy of the response body
+     * and the others parse their own documents from it once the response is complete, since
+     * features resolve their values into them. A reader that has time left when the one sending
+     * the request ran out of its own sends the request itself.
+     * </p>
+     * <p>
+     * When the store caches results, pages read before are replayed from the cache instead.
+     * </p>
+     */
+    QueryResponse process(QueryRequest req, Consumer<SolrDocument> consumer) throws IOException, SolrServerException {
+        if (closed) {
+            throw new InterruptedIOException("Feature reader closed");
+        }
+
+        String key = SingleFlight.key(req.getPath(), req.getParams());
+        ResultCache cache = source.store.results;
+        if (cache != null) {
+            cache.validate(source.store);
+            byte[] body = cache.get(key);
+            if (body != null) {
+                Page page = replay(body, consumer);
+                if (trace != null) {
+                    trace.page(page.rsp, page.count, page.bytes);
+                }
+                received = page.count;
+                read += received;
+                pages.update(received, page.bytes, 0);
+                return page.rsp;
+            }
+        }
+
+        boolean[] sent = {false};
+        Page page;
+        try {
+            page = source.store.pages.run(key, deadline.remaining(), () -> {
+                sent[0] = true;
+                try {
+                    return send(req, consumer, true);
+                }
+                catch (Exception e) {
+                    if (closed) {
+                        // let readers sharing the request know to send it themselves
+                        throw new CancellationException("Feature reader closed");
+                    }
+                    throw e;
+                }
+            });
+        }
+        catch (CancellationException e) {
+            if (sent[0] || closed) {
+                throw e;
+            }
+            // the reader sending the request was closed or ran out of time before it completed
+            deadline.check();
+            page = send(req, consumer, false);
+        }
+        catch (Exception e) {
+            Throwables.propagateIfPossible(e, IOException.class, SolrServerException.class);
             throw new IOException(e);
         }
 
-        return curr != null && curr.hasNext();
+        long elapsed = page.rsp.getElapsedTime();
+        if (!sent[0]) {
+            page = page.body != null ? replay(page.body, consumer) : send(req, consumer, false);
+        }
+
+        if (trace != null) {
+            trace.page(page.rsp, page.count, page.bytes);
+        }
+        received = page.count;
+        read += received;
+        pages.update(received, page.bytes, elapsed);
+        return page.rsp;
+    }
+
+    /*
+     * Sends a request, aborting it if the reader is closed or the deadline passes while it's
+     * running.
+     *
+     * @param shared Whether to keep the response body for the readers sharing the request, up to
+     * the size pages are aimed at or the largest cache entry. The readers send bodies larger than
+     * that themselves.
+     */
+    Page send(QueryRequest req, Consumer<SolrDocument> consumer, boolean shared) throws IOException, SolrServerException {
+        int[] count = {0};
+        CountingResponseParser parser = new CountingResponseParser(new StreamingBinaryResponseParser(callback(count, consumer)));
+        ResultCache cache = source.store.results;
+        int max = cache != null ? cache.maxEntry : -1;
+        if (shared) {
+            max = (int) Math.max(max, Math.min(source.store.config.pageBytes, Integer.MAX_VALUE - 1));
+        }
+        if (max >= 0) {
+            parser.capture(max);
+        }
+        req.setResponseParser(parser);
+
+        VoyagerEvents.Stage fetch = VoyagerEvents.INSTANCE.begin(VoyagerEvents.Kind.FETCH, source.store.config.index);
+        try {
+            QueryResponse rsp = source.store.process(req, deadline, priority(), m -> {
+                inflight = m;
+                if (closed) {
+                    m.abort();
+                }
+            });
+            fetch.end(count[0], parser.getBytes());
+            byte[] body = parser.getCaptured();
+            if (cache != null && ResultCache.cacheable(req.getParams(), rsp)) {
+                cache.put(SingleFlight.key(req.getPath(), req.getParams()), body);
+            }
+            return new Page(rsp, count[0], parser.getBytes(), shared ? body : null);
+        }
+        finally {
+            inflight = null;
+        }
+    }
+
+    /*
+     * Reads a page from a cached response body.
+     */
+    Page replay(byte[] body, Consumer<SolrDocument> consumer) {
+        int[] count = {0};
+        NamedList<Object> rsp = new StreamingBinaryResponseParser(callback(count, consumer))
+            .processResponse(new ByteArrayInputStream(body), null);
+        return new Page(new QueryResponse(rsp, solr), count[0], body.length, null);
+    }
+
+    StreamingResponseCallback callback(int[] count, Consumer<SolrDocument> consumer) {
+        return new StreamingResponseCallback() {
+            @Override
+            public void streamSolrDocument(SolrDocument doc) {
+                count[0]++;
+                consumer.accept(doc);
+            }
+
+            @Override
+            public void streamDocListInfo(long numFound, long start, Float maxScore) {
+            }
+        };
+    }
+
+    /**
+     * Priority of the next request, reads that need or have read many documents are bulk.
+     */
+    Priority priority() {
+        return Priority.of(priority, Math.max(limit != null ? limit : 0, read), source.store.config);
     }
 
     @Override
     public SimpleFeature next() throws IOException, IllegalArgumentException, NoSuchElementException {
-        SolrDocument doc = curr.next();
+        return feature(curr.next());
+    }
+
+    /**
+     * Creates the feature for a document, attributes are decoded when first accessed.
+     */
+    VoyagerFeature feature(SolrDocument doc) {
+        String fid = doc.getFirstValue(source.store.config.uniqueIdField).toString();
+        return new VoyagerFeature(this, doc, fid);
+    }
+
+    /**
+     * The value of an attribute of a document, timing the decoding when the read is traced.
+     */
+    Object value(SolrDocument doc, int index) {
+        if (trace == null) {
+            return decode(doc, index);
+        }
+        long start = System.nanoTime();
+        try {
+            return decode(doc, index);
+        }
+        finally {
+            trace.decoded(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Decodes the value of an attribute of a document, converting it to the attribute binding.
+     */
+    Object decode(SolrDocument doc, int index) {
+        if (index == geometryIndex) {
+            try {
+                return geometry(doc, fields[index]);
+            }
+            catch (IOException e) {
+                throw new IllegalStateException("Unable to read geometry of " + doc, e);
+            }
+        }
+
+        Object val = doc.get(fields[index]);
+        if (val != null && !bindings[index].isInstance(val)) {
+            Object converted = Converters.convert(val, bindings[index]);
+            if (converted != null) {
+                val = converted;
+            }
+        }
+        return interned[index] ? source.store.dictionary.intern(fields[index], val) : val;
+    }
+
+    /**
+     * Reads the geometry of a document. Points are built directly from the lat/lon companion
+     * fields when there are any, or from the "lat,lon" value of point fields, anything else is
+     * decoded from geojson and kept in the geometry cache, if there is one.
+     */
+    protected Geometry geometry(SolrDocument doc, String field) throws IOException {
         VoyagerConfig config = source.store.config;
+        GeoJsonDecoder decoder = source.store.decoder();
+        if (config.hasPointFields()) {
+            Object lat = doc.getFirstValue(config.latField);
+            Object lon = doc.getFirstValue(config.lonField);
+            if (lat instanceof Number && lon instanceof Number) {
+                return decoder.point(((Number) lon).doubleValue(), ((Number) lat).doubleValue());
+            }
+            return null;
+        }
 
-        for (AttributeDescriptor att : getFeatureType().getAttributeDescriptors()) {
-            Object val = doc.get(att.getLocalName());
-            if (val != null && att instanceof GeometryDescriptor) {
-                val = geojson.read(val);
+        Object val = doc.get(field);
+        if (val == null) {
+            return null;
+        }
+        if (val instanceof Geometry) {
+            // filled in from the geometry cache
+            return (Geometry) val;
+        }
+        if (val instanceof String && config.strategy() == SpatialStrategy.LATLON_POINT) {
+            String s = (String) val;
+            int comma = s.indexOf(',');
+            if (comma > 0) {
+                try {
+                    double lat = Double.parseDouble(s.substring(0, comma).trim());
+                    double lon = Double.parseDouble(s.substring(comma + 1).trim());
+                    return decoder.point(lon, lat);
+                }
+                catch (NumberFormatException e) {
+                    throw new IOException("Invalid point: " + s, e);
+                }
+            }
+        }
+        try {
+            Geometry g = decoder.decode(val.toString());
+            Object version = doc.getFirstValue(VoyagerDataStore.VERSION_FIELD);
+            if (source.store.geometries != null && g != null && version != null) {
+                source.store.geometries.put(doc.getFirstValue(config.uniqueIdField), version, g);
             }
-            builder.set(att.getLocalName(), val);
+            return g;
         }
+        catch (IllegalArgumentException e) {
+            throw new IOException("Invalid geometry", e);
+        }
+    }
+
+    /**
+     * Response to a page request.
+     */
+    static class Page {
+        final QueryResponse rsp;
+        final int count;
+        final long bytes;
+
+        /* the response body, kept when the page is shared with other readers */
+        final byte[] body;
 
-        String fid = doc.get(config.uniqueIdField).toString();
-        return builder.buildFeature(fid);
+        Page(QueryResponse rsp, int count, long bytes, byte[] body) {
+            this.rsp = rsp;
+            this.count = count;
+            this.bytes = bytes;
+            this.body = body;
+        }
     }
 
     @Override
     public void close() throws IOException {
-
+        closed = true;
+        HttpRequestBase m = inflight;
+        if (m != null) {
+            m.abort();
+        }
     }
 }
@@ -4,14 +4,16 @@ import com.google.common.base.Throwables;
 import org.apache.solr.client.solrj.SolrQuery;
 import org.apache.solr.client.solrj.SolrServerException;
 import org.apache.solr.client.solrj.request.LukeRequest;
-import org.apache.solr.client.solrj.request.QueryRequest;
+import org.apache.solr.client.solrj.response.FieldStatsInfo;
 import org.apache.solr.client.solrj.response.LukeResponse;
 import org.apache.solr.client.solrj.response.QueryResponse;
 import org.apache.solr.client.solrj.response.json.HeatmapJsonFacet;
 import org.apache.solr.common.luke.FieldFlag;
 import org.apache.solr.common.util.NamedList;
+import org.geotools.data.DataUtilities;
 import org.geotools.data.FeatureReader;
 import org.geotools.data.Query;
+import org.geotools.data.ReTypeFeatureReader;
 import org.geotools.data.simple.FilteringSimpleFeatureReader;
 import org.geotools.data.simple.SimpleFeatureReader;
 import org.geotools.data.store.ContentEntry;
@@ -20,19 +22,26 @@ import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
 import org.geotools.filter.visitor.PostPreProcessFilterSplittingVisitor;
 import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.geotools.referencing.CRS;
+import org.geotools.util.factory.Hints;
 import org.locationtech.jts.geom.Coordinate;
 import org.locationtech.jts.geom.Envelope;
-import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.Point;
 import org.locationtech.jts.geom.impl.CoordinateArraySequenceFactory;
 import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.simple.SimpleFeatureType;
 import org.opengis.filter.Filter;
+import org.opengis.filter.Id;
+import org.opengis.filter.identity.Identifier;
+import org.opengis.filter.sort.SortBy;
+import org.opengis.filter.sort.SortOrder;
 import org.opengis.referencing.FactoryException;
 
 import java.io.IOException;
-import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -49,10 +58,46 @@ public class VoyagerFeatureSource extends ContentFeatureSource  {
         this.store = store;
     }
 
+    /*
+     * Filtering, sorting and paging are all handled by the readers this source creates, so that
+     * reads stop as soon as enough features have been read rather than being wrapped by readers
+     * that work on the complete result.
+     */
+
+    @Override
+    protected boolean canFilter() {
+        return true;
+    }
+
+    @Override
+    protected boolean canSort() {
+        return true;
+    }
+
+    @Override
+    protected boolean canOffset() {
+        return true;
+    }
+
+    @Override
+    protected boolean canLimit() {
+        return true;
+    }
+
+    @Override
+    protected boolean canRetype() {
+        return true;
+    }
+
     @Override
     protected ReferencedEnvelope getBoundsInternal(Query query) throws IOException {
         VoyagerConfig config = store.config;
 
+        Snapshot.Data snapshot = snapshot(query);
+        if (snapshot != null) {
+            return snapshot.bounds(query.getFilter());
+        }
+
         Filter[] split = splitFilter(query.getFilter());
         Filter preFilter = split[0];
         Filter postFilter = split[1];
@@ -63,15 +108,24 @@ public class VoyagerFeatureSource extends ContentFeatureSource  {
         // if no post filter we can optimize bounding box calculation
         try {
             if (postFilter == null || postFilter == Filter.INCLUDE) {
-                switch (config.spatialStrategy) {
-                    case RPT:
-                        return boundsFromHeatMap(preQuery);
+                if (config.hasPointFields()) {
+                    return boundsFromStats(preQuery,
+                        config.lonField, config.lonField, config.latField, config.latField);
+                }
+                switch (config.strategy()) {
+                    case LATLON_POINT:
+                        // points can't be faceted or summarized directly
+                        return null;
+                    case BBOX:
+                        // bbox fields index each side as a numeric sub field
+                        String f = config.geoField;
+                        return boundsFromStats(preQuery, f + "__minX", f + "__maxX", f + "__minY", f + "__maxY");
                     default:
-                        throw new UnsupportedEncodingException("TODO");
+                        return boundsFromHeatMap(preQuery);
                 }
             } else {
-                // can't optimize, need to calculate manually
-                throw new UnsupportedEncodingException("TODO");
+                // can't optimize, let the caller calculate it manually
+                return null;
             }
         }
         catch(Exception e) {
@@ -92,8 +146,7 @@ public class VoyagerFeatureSource extends ContentFeatureSource  {
             LOG.fine("Bounds query: " +  q.toQueryString());
         }
 
-        QueryRequest req = new QueryRequest(q);
-        QueryResponse rsp = req.process(store.solr);
+        QueryResponse rsp = processShared(VoyagerEvents.Kind.BOUNDS, query, q);
 
         NamedList facetCounts = (NamedList) rsp.getResponse().get("facet_counts");
         NamedList facetHeatmaps = (NamedList) facetCounts.get("facet_heatmaps");
@@ -101,6 +154,40 @@ public class VoyagerFeatureSource extends ContentFeatureSource  {
         return heatmapToBounds(new HeatmapJsonFacet((NamedList) facetHeatmaps.get(field)));
     }
 
+    /**
+     * Calculates bounds from the minimum and maximum of the numeric fields holding coordinates.
+     */
+    ReferencedEnvelope boundsFromStats(Query query, String minX, String maxX, String minY, String maxY)
+        throws Exception {
+        SolrQuery q = store.query(getSchema(), query);
+        q.setRows(0);
+        q.setGetFieldStatistics(true);
+        for (String f : new LinkedHashSet<>(Arrays.asList(minX, maxX, minY, maxY))) {
+            q.addGetFieldStatistics("{!min=true max=true}" + f);
+        }
+
+        if (LOG.isLoggable(Level.FINE)) {
+            LOG.fine("Bounds query: " +  q.toQueryString());
+        }
+
+        QueryResponse rsp = processShared(VoyagerEvents.Kind.BOUNDS, query, q);
+        Map<String, FieldStatsInfo> stats = rsp.getFieldStatsInfo();
+
+        ReferencedEnvelope bounds = new ReferencedEnvelope(getSchema().getCoordinateReferenceSystem());
+        Double x1 = stat(stats, minX, true), x2 = stat(stats, maxX, false);
+        Double y1 = stat(stats, minY, true), y2 = stat(stats, maxY, false);
+        if (x1 != null && x2 != null && y1 != null && y2 != null) {
+            bounds.init(x1, x2, y1, y2);
+        }
+        return bounds;
+    }
+
+    Double stat(Map<String, FieldStatsInfo> stats, String field, boolean min) {
+        FieldStatsInfo info = stats != null ? stats.get(field) : null;
+        Object v = info == null ? null : min ? info.getMin() : info.getMax();
+        return v instanceof Number ? ((Number) v).doubleValue() : null;
+    }
+
     ReferencedEnvelope heatmapToBounds(HeatmapJsonFacet hm) {
         List<Coordinate> points = new ArrayList<>();
 
@@ -150,6 +237,11 @@ public class VoyagerFeatureSource extends ContentFeatureSource  {
     protected int getCountInternal(Query query) throws IOException {
         VoyagerConfig config = store.config;
 
+        Snapshot.Data snapshot = snapshot(query);
+        if (snapshot != null) {
+            return snapshot.count(query.getFilter());
+        }
+
         Filter[] split = splitFilter(query.getFilter());
         Filter preFilter = split[0];
         Filter postFilter = split[1];
@@ -162,8 +254,8 @@ public class VoyagerFeatureSource extends ContentFeatureSource  {
             if (postFilter == null || postFilter == Filter.INCLUDE) {
                 return count(preQuery);
             } else {
-                // can't optimize, need to calculate manually
-                throw new UnsupportedEncodingException("TODO");
+                // can't optimize, let the caller calculate it manually
+                return -1;
             }
         }
         catch(Exception e) {
@@ -180,50 +272,210 @@ public class VoyagerFeatureSource extends ContentFeatureSource  {
             LOG.fine("Count query: " +  q.toQueryString());
         }
 
-        QueryResponse rsp = new QueryRequest(q).process(store.solr);
+        QueryResponse rsp = processShared(VoyagerEvents.Kind.COUNT, query, q);
         return (int) rsp.getResults().getNumFound();
     }
 
+    /**
+     * Sends a count or bounds query, sharing it with identical ones in flight.
+     */
+    QueryResponse processShared(VoyagerEvents.Kind kind, Query query, SolrQuery q) throws Exception {
+        QueryTrace trace = QueryTrace.start(store.config, kind.name().toLowerCase(), query.getFilter());
+        VoyagerEvents.Stage stage = VoyagerEvents.INSTANCE.begin(kind, store.config.index);
+        QueryResponse rsp = store.processShared(store.request(q), Deadline.of(query, store.config),
+            Priority.of(query, Priority.INTERACTIVE));
+        stage.end(rsp.getResults() != null ? rsp.getResults().getNumFound() : 0, 0);
+        if (trace != null) {
+            trace.query(q).page(rsp, 0, 0);
+            trace.finish();
+        }
+        return rsp;
+    }
+
     @Override
     protected FeatureReader<SimpleFeatureType, SimpleFeature> getReaderInternal(Query query) throws IOException {
         VoyagerConfig config = store.config;
 
+        Snapshot.Data snapshot = snapshot(query);
+        if (snapshot != null) {
+            SimpleFeatureType type = query.retrieveAllProperties()
+                ? getSchema() : SimpleFeatureTypeBuilder.retype(getSchema(), query.getPropertyNames());
+            return offsetLimit(snapshot.reader(query, type), query);
+        }
+
         Filter[] split = splitFilter(query.getFilter());
         Filter preFilter = split[0];
         Filter postFilter = split[1];
 
         Query preQuery = new Query(query);
         preQuery.setFilter(preFilter);
+        if (postFilter != null && postFilter != Filter.INCLUDE) {
+            preQuery.setPropertyNames(Query.ALL_NAMES);
+        }
+
+        QueryTrace trace = QueryTrace.start(config,
+            Boolean.TRUE.equals(query.getHints().get(Prefetcher.HINT)) ? "prefetch" : "read", query.getFilter());
+        if (trace != null) {
+            trace.split(preFilter, postFilter);
+        }
+
+        Integer limit = limit(query, postFilter);
+
+        // features only carry the requested properties, unless a post filter needs the others
+        boolean filtering = postFilter != null && postFilter != Filter.INCLUDE;
+        SimpleFeatureType type = query.retrieveAllProperties()
+            ? getSchema() : SimpleFeatureTypeBuilder.retype(getSchema(), query.getPropertyNames());
 
         SimpleFeatureReader reader;
         try {
-            SolrQuery q = store.query(getSchema(), preQuery);
-
-            if (LOG.isLoggable(Level.FINE)) {
-                LOG.fine("Feature query: " +  q.toQueryString());
+            SimpleFeatureType readType = filtering ? getSchema() : type;
+            List<String> ids = idLookup(query, preFilter, postFilter);
+            if (ids != null) {
+                // pure feature id lookup, fetch the documents directly rather than searching
+                Query idQuery = new Query(preQuery);
+                idQuery.setFilter(Filter.INCLUDE);
+                VoyagerFeatureReader lookup = new VoyagerIdFeatureReader(this, readType,
+                    store.query(getSchema(), idQuery), ids, limit, Deadline.of(query, config), Priority.of(query, null));
+                lookup.trace = trace != null ? trace.query(lookup.query) : null;
+                reader = lookup;
             }
+            else {
+                SolrQuery q = store.query(getSchema(), preQuery);
 
-            reader = new VoyagerFeatureReader(this, q);
+                if (LOG.isLoggable(Level.FINE)) {
+                    LOG.fine("Feature query: " +  q.toQueryString());
+                }
+
+                VoyagerFeatureReader search = new VoyagerFeatureReader(this, readType, q, limit,
+                    Deadline.of(query, config), Priority.of(query, null));
+                search.trace = trace != null ? trace.query(q) : null;
+                reader = search;
+                if (config.decodeThreads > 0 && (limit == null || search.priority() == Priority.BULK)) {
+                    // fetch and decode alongside the consumer once the read is bulk
+                    reader = new PipelinedFeatureReader(search);
+                }
+                if (store.prefetcher != null) {
+                    store.prefetcher.prefetch(this, query);
+                }
+            }
         }
         catch(Exception e) {
             Throwables.propagateIfPossible(e, IOException.class);
             throw new IOException("Error reading features", e);
         }
 
-        if (postFilter != null && postFilter != Filter.INCLUDE) {
-            reader = new FilteringSimpleFeatureReader(reader, postFilter);
+        if (filtering) {
+            reader = VoyagerEvents.INSTANCE.recordsPostFilter()
+                ? new PostFilterReader(reader, new PostFilterReader.Timed(postFilter), config.index)
+                : new FilteringSimpleFeatureReader(reader, postFilter);
+            if (type != getSchema()) {
+                reader = DataUtilities.simple(new ReTypeFeatureReader(reader, type, false));
+            }
         }
+        if (trace != null) {
+            reader = trace.wrap(reader);
+        }
+
+        return offsetLimit(reader, query);
+    }
+
+    /**
+     * The reader of the documents solr returns for a query, before they are post filtered. Pages
+     * can be read off it with {@link VoyagerFeatureReader#stream} without decoding the
+     * documents into features, eg. to warm the result cache.
+     */
+    VoyagerFeatureReader search(Query query) throws Exception {
+        Filter[] split = splitFilter(query.getFilter());
+        boolean filtering = split[1] != null && split[1] != Filter.INCLUDE;
+
+        Query preQuery = new Query(query);
+        preQuery.setFilter(split[0]);
+        if (filtering) {
+            preQuery.setPropertyNames(Query.ALL_NAMES);
+        }
+        SimpleFeatureType type = filtering || query.retrieveAllProperties()
+            ? getSchema() : SimpleFeatureTypeBuilder.retype(getSchema(), query.getPropertyNames());
+        return new VoyagerFeatureReader(this, type, store.query(getSchema(), preQuery), limit(query, split[1]),
+            Deadline.of(query, store.config), Priority.of(query, null));
+    }
 
+    /**
+     * Number of documents a query reads at most. Without a post filter every document read is a
+     * feature, so the read can stop as soon as offset + max features documents have been read.
+     */
+    static Integer limit(Query query, Filter postFilter) {
+        if ((postFilter == null || postFilter == Filter.INCLUDE) && !query.isMaxFeaturesUnlimited()) {
+            long offset = query.getStartIndex() != null ? Math.max(0, query.getStartIndex()) : 0;
+            return (int) Math.min(Integer.MAX_VALUE, offset + query.getMaxFeatures());
+        }
+        return null;
+    }
 
+    SimpleFeatureReader offsetLimit(SimpleFeatureReader reader, Query query) {
         if (query.getStartIndex() != null || !query.isMaxFeaturesUnlimited()) {
             reader = new OffsetLimitSimpleFeatureReader(reader,
                     query.getStartIndex() != null && query.getStartIndex() > 0 ? query.getStartIndex() : null,
                     query.isMaxFeaturesUnlimited() ? null : query.getMaxFeatures());
         }
-
         return reader;
     }
 
+    /**
+     * Returns the in memory copy of the layer a query can be served from, or null if there isn't
+     * one yet or the query needs solr: it's sorted on attributes, looks features up by id, which
+     * real-time get already does quickly, filters with view parameters, or has a filter that
+     * means something else in memory.
+     */
+    Snapshot.Data snapshot(Query query) {
+        if (store.snapshot == null || query.getFilter() instanceof Id) {
+            return null;
+        }
+        if (query.getSortBy() != null) {
+            for (SortBy sort : query.getSortBy()) {
+                if (sort.getPropertyName() != null) return null;
+            }
+        }
+        if (query.getHints().get(Hints.VIRTUAL_TABLE_PARAMETERS) != null) {
+            return null;
+        }
+        if (!Snapshot.evaluable(query.getFilter(), getSchema())) {
+            return null;
+        }
+        return store.snapshot.current(this);
+    }
+
+    /**
+     * Returns the ids to fetch when a query can be answered with real-time get, ie. it is filtered
+     * by feature id only and isn't sorted on any attributes. Returns null for any other query.
+     */
+    List<String> idLookup(Query query, Filter preFilter, Filter postFilter) {
+        if (!store.config.realTimeGet || !(preFilter instanceof Id)) {
+            return null;
+        }
+        if (postFilter != null && postFilter != Filter.INCLUDE) {
+            return null;
+        }
+
+        SortOrder order = null;
+        if (query.getSortBy() != null) {
+            for (SortBy sort : query.getSortBy()) {
+                if (sort.getPropertyName() != null) return null;
+                order = sort.getSortOrder();
+            }
+        }
+
+        FilterToSolr f2s = new FilterToSolr(getSchema(), store.config);
+        List<String> ids = new ArrayList<>();
+        for (Identifier id : ((Id) preFilter).getIdentifiers()) {
+            ids.add(f2s.decodeFID(id.toString()));
+        }
+
+        // natural order is by the unique id field, ascending unless asked otherwise like searches
+        Comparator<String> c = Comparator.naturalOrder();
+        ids.sort(order != SortOrder.DESCENDING ? c : c.reversed());
+        return ids;
+    }
+
     @Override
     protected SimpleFeatureType buildFeatureType() throws IOException {
         VoyagerConfig config = store.config;
@@ -231,8 +483,20 @@ public class VoyagerFeatureSource extends ContentFeatureSource  {
         SimpleFeatureTypeBuilder tb = new SimpleFeatureTypeBuilder();
         tb.setNamespaceURI(store.getNamespaceURI());
         tb.setName(config.index);
+
+        VoyagerSchema schema = schema();
+        VoyagerField geo = schema.field(config.geoField, null, null);
+        if (config.spatialStrategy == null) {
+            // pick the strategy from how the index stores geometries
+            config.spatialStrategy = SpatialStrategy.detect(geo.typeClass);
+            if (LOG.isLoggable(Level.FINE)) {
+                LOG.fine("Spatial strategy for " + geo + ": " + config.strategy());
+            }
+        }
         try {
-            tb.add(config.geoField, Geometry.class, CRS.decode("EPSG:4326"));
+            tb.userData(VoyagerField.class, geo);
+            tb.add(config.geoField, config.hasPointFields() ? Point.class : config.strategy().binding(),
+                CRS.decode("EPSG:4326"));
         } catch (FactoryException e) {
             throw new IOException(e);
         }
@@ -243,7 +507,8 @@ public class VoyagerFeatureSource extends ContentFeatureSource  {
         //req.setShowSchema(true);  // setting this doesn't return dynamic fields but means we must manually parse flags
 
         try {
-            LukeResponse rsp = req.process(store.solr);
+            LukeResponse rsp = store.process(req, Deadline.NONE, Priority.INTERACTIVE, null);
+            Integer numDocs = rsp.getNumDocs();
             for (Map.Entry<String, LukeResponse.FieldInfo> e : rsp.getFieldInfo().entrySet()) {
                 String field = e.getKey();
                 LukeResponse.FieldInfo info = e.getValue();
@@ -255,8 +520,22 @@ public class VoyagerFeatureSource extends ContentFeatureSource  {
                 boolean storedOrDocValues = flags.contains(FieldFlag.STORED) || flags.contains(FieldFlag.DOC_VALUES);
                 if (!storedOrDocValues) continue;
 
+                // leave out fields that are rarely populated, they can still be filtered on
+                if (config.minFieldDensity > 0 && numDocs != null && info.getDocs() > 0
+                        && info.getDocs() < config.minFieldDensity * numDocs) {
+                    if (LOG.isLoggable(Level.FINE)) {
+                        LOG.fine("Pruning field " + field + " populated in " + info.getDocs() + " of " + numDocs);
+                    }
+                    continue;
+                }
+
+                if (info.getDistinct() > 0) {
+                    store.dictionary.distinct(field, info.getDistinct());
+                }
+
                 VoyagerType type = VoyagerType.match(info.getType());
                 tb.userData(VoyagerType.class, type);
+                tb.userData(VoyagerField.class, schema.field(field, info.getType(), flags));
 
                 tb.minOccurs(0);
                 tb.maxOccurs(flags.contains(FieldFlag.MULTI_VALUED) ? Integer.MAX_VALUE : 1);
@@ -271,6 +550,26 @@ public class VoyagerFeatureSource extends ContentFeatureSource  {
 
     }
 
+    /**
+     * Fetches the schema details of the index, used to pick query encodings based on how fields
+     * are analyzed.
+     */
+    VoyagerSchema schema() throws IOException {
+        LukeRequest req = new LukeRequest();
+        req.setShowSchema(true);
+        try {
+            NamedList<Object> rsp = store.process(req, Deadline.NONE, Priority.INTERACTIVE, null).getResponse();
+            Object schema = rsp.get("schema");
+            if (schema instanceof NamedList) {
+                return new VoyagerSchema((NamedList<?>) schema);
+            }
+        }
+        catch (SolrServerException | RuntimeException e) {
+            LOG.log(Level.WARNING, "Unable to read index schema", e);
+        }
+        return VoyagerSchema.EMPTY;
+    }
+
     private Set<FieldFlag> parseFlags(String schema) {
         Set<FieldFlag> flags = new HashSet<>();
         if (schema.contains("S")) flags.add(FieldFlag.STORED);
@@ -282,11 +581,24 @@ public class VoyagerFeatureSource extends ContentFeatureSource  {
     private Filter[] splitFilter(Filter original) {
         Filter[] split = new Filter[2];
         if (original != null) {
+            VoyagerEvents.Stage plan = VoyagerEvents.INSTANCE.begin(VoyagerEvents.Kind.PLAN, store.config.index);
+            // the capabilities depend on the spatial strategy, which is known once the schema is
+            SimpleFeatureType schema = getSchema();
             PostPreProcessFilterSplittingVisitor splitter =
-                    new PostPreProcessFilterSplittingVisitor( store.filterCapabilities(), getSchema(), null);
+                    new PostPreProcessFilterSplittingVisitor( store.filterCapabilities(), schema, null);
             original.accept(splitter, null);
             split[0] = splitter.getFilterPre();
             split[1] = splitter.getFilterPost();
+            if (store.config.strategy() == SpatialStrategy.RPT) {
+                // distances around shapes other than points are sent as wider buffers, the
+                // features solr returns are checked against the distance itself
+                Filter exact = GeodesicDWithin.exact(split[0]);
+                if (exact != null) {
+                    split[1] = split[1] == null || split[1] == Filter.INCLUDE
+                        ? exact : GeodesicDWithin.Exact.FF.and(exact, split[1]);
+                }
+            }
+            plan.end(0, 0);
         }
         return split;
     }
@@ -0,0 +1,72 @@
+package org.geoserver.voyager;
+
+import org.apache.solr.common.luke.FieldFlag;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * Index details of a field as reported by Luke, stored in the user data of the attribute
+ * descriptors of the feature type.
+ */
+public class VoyagerField {
+
+    final String name;
+    final String type;
+    final Set<FieldFlag> flags;
+
+    /** class name of the field type */
+    String typeClass;
+
+    /** whether the field is tokenized by something other than a keyword tokenizer */
+    boolean tokenized;
+
+    /** whether indexed terms are lower cased */
+    boolean lowercase;
+
+    /** whether indexed terms are also stored reversed to speed up leading wildcards */
+    boolean reversedWildcards;
+
+    /** n-gram sizes of indexed terms, 0 if the field isn't n-grammed */
+    int minGram, maxGram;
+
+    /** fields this field is copied to */
+    final List<VoyagerField> copies = new ArrayList<>();
+
+    public VoyagerField(String name, String type, Set<FieldFlag> flags) {
+        this.name = name;
+        this.type = type;
+        this.flags = flags != null ? flags : EnumSet.noneOf(FieldFlag.class);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public boolean hasDocValues() {
+        return flags.contains(FieldFlag.DOC_VALUES);
+    }
+
+    public boolean isNGram() {
+        return maxGram > 0;
+    }
+
+    /**
+     * Returns this field or one of its copies, the first one matching the predicate.
+     */
+    public Optional<VoyagerField> find(Predicate<VoyagerField> p) {
+        if (p.test(this)) {
+            return Optional.of(this);
+        }
+        return copies.stream().filter(p).findFirst();
+    }
+
+    @Override
+    public String toString() {
+        return name + "(" + type + ")";
+    }
+}
@@ -0,0 +1,72 @@
+package org.geoserver.voyager;
+
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.request.QueryRequest;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.params.CommonParams;
+import org.apache.solr.common.params.ModifiableSolrParams;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+
+import static org.geoserver.voyager.VoyagerDataStore.LOG;
+
+/**
+ * Feature reader for queries that select features purely by id, looking the documents up in
+ * batches through the real-time get handler rather than searching for them. Batches are sized
+ * like the pages of a search.
+ */
+public class VoyagerIdFeatureReader extends VoyagerFeatureReader {
+
+    final Iterator<String> ids;
+
+    VoyagerIdFeatureReader(VoyagerFeatureSource source, SimpleFeatureType type, SolrQuery query,
+                           List<String> ids, Integer limit, Deadline deadline, Priority priority) {
+        super(source, type, query, limit, deadline, priority);
+        this.ids = ids.iterator();
+    }
+
+    @Override
+    protected boolean stream(Consumer<SolrDocument> consumer) throws IOException, SolrServerException {
+        while (ids.hasNext() && !pages.done()) {
+            ModifiableSolrParams params = new ModifiableSolrParams();
+            params.set(CommonParams.FL, query.getFields());
+            if (query.getFilterQueries() != null) {
+                params.set(CommonParams.FQ, query.getFilterQueries());
+            }
+
+            deadline.apply(params);
+
+            int n = 0, batch = pages.next();
+            while (ids.hasNext() && n++ < batch) {
+                params.add("ids", escape(ids.next()));
+            }
+
+            if (LOG.isLoggable(Level.FINE)) {
+                LOG.fine("Feature id lookup: " + params);
+            }
+
+            QueryRequest req = source.store.request(params);
+            req.setPath("/get");
+            read(req, consumer);
+
+            if (received > 0) {
+                return true;
+            }
+            // none of this batch matched, move on to the next one
+        }
+        return false;
+    }
+
+    /**
+     * Escapes an id for the ids parameter, each value of which is itself split on commas.
+     */
+    static String escape(String id) {
+        return id.replace("\\", "\\\\").replace(",", "\\,");
+    }
+}
@@ -0,0 +1,185 @@
+package org.geoserver.voyager;
+
+import org.apache.solr.common.luke.FieldFlag;
+import org.apache.solr.common.util.NamedList;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Field types, dynamic fields and copy fields of an index, parsed from a Luke request with
+ * <code>show=schema</code>.
+ */
+public class VoyagerSchema {
+
+    /** schema used when the index schema isn't available */
+    static final VoyagerSchema EMPTY = new VoyagerSchema(new NamedList<>());
+
+    final Map<String, Object> types = new HashMap<>();
+    final Map<String, Object> fields = new HashMap<>();
+    final Map<String, Object> dynamicFields = new HashMap<>();
+
+    public VoyagerSchema(NamedList<?> schema) {
+        collect(schema.get("types"), types);
+        collect(schema.get("fields"), fields);
+        collect(schema.get("dynamicFields"), dynamicFields);
+    }
+
+    /**
+     * Describes a field of the index, resolving its type analysis and the fields it is copied to.
+     *
+     * @param name The field name.
+     * @param type The field type name, or null to look it up from the schema.
+     * @param flags The index flags of the field.
+     */
+    public VoyagerField field(String name, String type, Set<FieldFlag> flags) {
+        VoyagerField field = new VoyagerField(name, type != null ? type : typeOf(name), flags);
+        analyze(field);
+
+        for (String dest : copyDests(name)) {
+            VoyagerField copy = new VoyagerField(dest, typeOf(dest), EnumSet.noneOf(FieldFlag.class));
+            analyze(copy);
+            field.copies.add(copy);
+        }
+        return field;
+    }
+
+    String typeOf(String field) {
+        Object info = definition(field);
+        Object type = info != null ? get(info, "type") : null;
+        return type != null ? type.toString() : null;
+    }
+
+    List<String> copyDests(String field) {
+        Object info = fields.get(field);
+        String stem = null;
+        if (info == null) {
+            String pattern = dynamicPattern(field);
+            if (pattern == null) {
+                return Collections.emptyList();
+            }
+            info = dynamicFields.get(pattern);
+            stem = pattern.startsWith("*")
+                    ? field.substring(0, field.length() - pattern.length() + 1)
+                    : field.substring(pattern.length() - 1);
+        }
+
+        Object dests = get(info, "copyDests");
+        if (!(dests instanceof List)) {
+            return Collections.emptyList();
+        }
+
+        List<String> copies = new ArrayList<>();
+        for (Object d : (List<?>) dests) {
+            String dest = String.valueOf(d);
+            copies.add(stem != null ? dest.replace("*", stem) : dest);
+        }
+        return copies;
+    }
+
+    void analyze(VoyagerField field) {
+        Object type = field.type != null ? types.get(field.type) : null;
+        if (type == null) {
+            return;
+        }
+
+        Object className = get(type, "className");
+        field.typeClass = className != null ? className.toString() : null;
+
+        Object analyzer = get(type, "indexAnalyzer");
+        Object tokenizer = analyzer != null ? get(analyzer, "tokenizer") : null;
+        Object tokenizerClass = tokenizer != null ? get(tokenizer, "className") : null;
+        field.tokenized = Boolean.TRUE.equals(get(type, "tokenized"))
+                && !(tokenizerClass != null && tokenizerClass.toString().endsWith("KeywordTokenizerFactory"));
+
+        Object filters = analyzer != null ? get(analyzer, "filters") : null;
+        if (filters instanceof NamedList) {
+            NamedList<?> list = (NamedList<?>) filters;
+            for (int i = 0; i < list.size(); i++) {
+                String filter = list.getName(i);
+                if ("LowerCaseFilterFactory".equals(filter)) {
+                    field.lowercase = true;
+                }
+                else if ("ReversedWildcardFilterFactory".equals(filter)) {
+                    field.reversedWildcards = true;
+                }
+                else if ("NGramFilterFactory".equals(filter)) {
+                    Object args = get(list.getVal(i), "args");
+                    field.minGram = intArg(args, "minGramSize", 1);
+                    field.maxGram = intArg(args, "maxGramSize", 2);
+                }
+            }
+        }
+    }
+
+    /*
+     * Looks up a field definition, explicit fields first then the dynamic fields.
+     */
+    Object definition(String field) {
+        Object info = fields.get(field);
+        if (info == null) {
+            String pattern = dynamicPattern(field);
+            info = pattern != null ? dynamicFields.get(pattern) : null;
+        }
+        return info;
+    }
+
+    /*
+     * Finds the dynamic field pattern matching a field name, as solr does the longest pattern
+     * wins.
+     */
+    String dynamicPattern(String field) {
+        String match = null;
+        for (String pattern : dynamicFields.keySet()) {
+            boolean matches = pattern.startsWith("*")
+                    ? field.endsWith(pattern.substring(1))
+                    : pattern.endsWith("*") && field.startsWith(pattern.substring(0, pattern.length() - 1));
+            if (matches && (match == null || pattern.length() > match.length())) {
+                match = pattern;
+            }
+        }
+        return match;
+    }
+
+    static int intArg(Object args, String name, int def) {
+        Object v = args != null ? get(args, name) : null;
+        try {
+            return v != null ? Integer.parseInt(v.toString()) : def;
+        }
+        catch (NumberFormatException e) {
+            return def;
+        }
+    }
+
+    static void collect(Object list, Map<String, Object> map) {
+        if (list instanceof NamedList) {
+            NamedList<?> nl = (NamedList<?>) list;
+            for (int i = 0; i < nl.size(); i++) {
+                map.put(nl.getName(i), nl.getVal(i));
+            }
+        }
+        else if (list instanceof Map) {
+            for (Map.Entry<?, ?> e : ((Map<?, ?>) list).entrySet()) {
+                map.put(String.valueOf(e.getKey()), e.getValue());
+            }
+        }
+    }
+
+    /*
+     * Response sections come back as named lists or maps depending on how they were built.
+     */
+    static Object get(Object container, String key) {
+        if (container instanceof NamedList) {
+            return ((NamedList<?>) container).get(key);
+        }
+        if (container instanceof Map) {
+            return ((Map<?, ?>) container).get(key);
+        }
+        return null;
+    }
+}
@@ -0,0 +1,47 @@
+package org.geoserver.voyager;
+
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.solr.client.solrj.SolrRequest;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.impl.HttpSolrClient;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Http solr client that hands the http method of tracked requests to a listener, so that the
+ * request can be aborted from another thread while it's running.
+ */
+public class VoyagerSolrClient extends HttpSolrClient {
+
+    /* solr requests don't override equals, so this is keyed by identity */
+    final Map<SolrRequest<?>, Consumer<HttpRequestBase>> tracked = new ConcurrentHashMap<>();
+
+    VoyagerSolrClient(Builder builder) {
+        super(builder);
+    }
+
+    /**
+     * Tracks a request, the listener is called with its http method before it's sent.
+     */
+    void track(SolrRequest<?> request, Consumer<HttpRequestBase> listener) {
+        tracked.put(request, listener);
+    }
+
+    void untrack(SolrRequest<?> request) {
+        tracked.remove(request);
+    }
+
+    @Override
+    protected HttpRequestBase createMethod(SolrRequest request, String collection)
+        throws IOException, SolrServerException {
+        HttpRequestBase method = super.createMethod(request, collection);
+        Consumer<HttpRequestBase> listener = tracked.get(request);
+        if (listener != null) {
+            listener.accept(method);
+        }
+        return method;
+    }
+}
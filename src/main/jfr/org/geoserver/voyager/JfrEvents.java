@@ -0,0 +1,122 @@
+package org.geoserver.voyager;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight recorder implementation of the read events, built on jdk 11 and later.
+ */
+public class JfrEvents extends VoyagerEvents {
+
+    @Override
+    public Stage begin(Kind kind, String layer) {
+        StageEvent e;
+        switch (kind) {
+            case PLAN: e = new Plan(); break;
+            case FETCH: e = new Fetch(); break;
+            case DECODE: e = new Decode(); break;
+            case COUNT: e = new Count(); break;
+            default: e = new Bounds(); break;
+        }
+        if (!e.isEnabled()) {
+            return NONE;
+        }
+        e.layer = layer;
+        e.begin();
+        return e;
+    }
+
+    @Override
+    public boolean recordsPostFilter() {
+        return new PostFilter().isEnabled();
+    }
+
+    @Override
+    public void postFiltered(String layer, long evaluated, long matched, long nanos) {
+        PostFilter e = new PostFilter();
+        if (e.isEnabled()) {
+            e.layer = layer;
+            e.evaluated = evaluated;
+            e.matched = matched;
+            e.time = nanos;
+            e.commit();
+        }
+    }
+
+    @Category({"GeoServer", "Voyager"})
+    @StackTrace(false)
+    abstract static class StageEvent extends Event implements Stage {
+
+        @Label("Layer")
+        String layer;
+
+        @Label("Documents")
+        long documents;
+
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+
+        @Override
+        public void end(long documents, long bytes) {
+            this.documents = documents;
+            this.bytes = bytes;
+            commit();
+        }
+    }
+
+    @Name("org.geoserver.voyager.Plan")
+    @Label("Query Planning")
+    @Description("Splitting, simplifying and encoding the filter of a read to solr")
+    static class Plan extends StageEvent {
+    }
+
+    @Name("org.geoserver.voyager.Fetch")
+    @Label("Page Fetch")
+    @Description("Request for a page of documents, including streaming them off the response")
+    static class Fetch extends StageEvent {
+    }
+
+    @Name("org.geoserver.voyager.Decode")
+    @Label("Batch Decode")
+    @Description("Decoding a batch of documents into features")
+    static class Decode extends StageEvent {
+    }
+
+    @Name("org.geoserver.voyager.Count")
+    @Label("Count")
+    static class Count extends StageEvent {
+    }
+
+    @Name("org.geoserver.voyager.Bounds")
+    @Label("Bounds")
+    static class Bounds extends StageEvent {
+    }
+
+    @Name("org.geoserver.voyager.PostFilter")
+    @Label("Post Filter")
+    @Description("Filter evaluated in memory on the features of a read")
+    @Category({"GeoServer", "Voyager"})
+    @StackTrace(false)
+    static class PostFilter extends Event {
+
+        @Label("Layer")
+        String layer;
+
+        @Label("Evaluated")
+        long evaluated;
+
+        @Label("Matched")
+        long matched;
+
+        @Label("Evaluation Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long time;
+    }
+}
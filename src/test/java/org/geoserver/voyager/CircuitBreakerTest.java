@@ -0,0 +1,101 @@
+package org.geoserver.voyager;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CircuitBreakerTest {
+
+    CircuitBreaker breaker(long openTime) {
+        VoyagerConfig config = new VoyagerConfig();
+        config.breakerOpenTime = openTime;
+        config.breakerSlowCallTime = 1000;
+        return new CircuitBreaker("http://localhost:8888", config);
+    }
+
+    void fails(CircuitBreaker breaker) {
+        try {
+            breaker.acquire();
+            fail();
+        }
+        catch (CircuitOpenException e) {
+            // open
+        }
+    }
+
+    @Test
+    public void opensOnFailures() throws Exception {
+        CircuitBreaker breaker = breaker(60000);
+        for (int i = 0; i < 9; i++) {
+            breaker.release(breaker.acquire(), i % 2 == 0, 0);
+        }
+        assertEquals("CLOSED", breaker.getState());
+
+        // slow calls count as failures too
+        breaker.release(breaker.acquire(), false, 2000000000L);
+        assertEquals("OPEN", breaker.getState());
+        fails(breaker);
+        assertEquals(1, breaker.getRejected());
+    }
+
+    @Test
+    public void staysClosedWhenHealthy() throws Exception {
+        CircuitBreaker breaker = breaker(60000);
+        for (int i = 0; i < 100; i++) {
+            breaker.release(breaker.acquire(), i % 5 == 0, 0);
+        }
+        assertEquals("CLOSED", breaker.getState());
+    }
+
+    @Test
+    public void probesWhenHalfOpen() throws Exception {
+        CircuitBreaker breaker = breaker(0);
+        for (int i = 0; i < 10; i++) {
+            breaker.release(breaker.acquire(), true, 0);
+        }
+        assertEquals(1, breaker.getOpened());
+
+        // open time passed, one probe at a time
+        boolean probe = breaker.acquire();
+        assertTrue(probe);
+        assertEquals("HALF_OPEN", breaker.getState());
+        fails(breaker);
+
+        breaker.release(probe, true, 0);
+        assertEquals("OPEN", breaker.getState());
+
+        probe = breaker.acquire();
+        breaker.release(probe, false, 0);
+        assertEquals("CLOSED", breaker.getState());
+        assertFalse(breaker.acquire());
+    }
+
+    @Test
+    public void sharedByStoresOfBackend() throws Exception {
+        VoyagerConfig config = new VoyagerConfig();
+        config.uri = "http://localhost:8888/shared";
+        config.breakerSlowCallTime = 1000;
+        CircuitBreaker breaker = CircuitBreaker.of(config);
+
+        // the store created last configures the breaker
+        config.breakerSlowCallTime = 0;
+        assertSame(breaker, CircuitBreaker.of(config));
+        for (int i = 0; i < 20; i++) {
+            breaker.release(breaker.acquire(), false, 2000000000L);
+        }
+        assertEquals("CLOSED", breaker.getState());
+
+        // and it's unregistered once both are disposed
+        breaker.dispose();
+        assertSame(breaker, CircuitBreaker.BACKENDS.get(config.uri));
+        breaker.dispose();
+        assertFalse(CircuitBreaker.BACKENDS.containsKey(config.uri));
+        assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(breaker.name()));
+    }
+}
@@ -0,0 +1,154 @@
+package org.geoserver.voyager;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ConcurrencyLimiterTest {
+
+    ConcurrencyLimiter limiter(int max, long wait) {
+        VoyagerConfig config = new VoyagerConfig();
+        config.maxConcurrency = max;
+        config.maxQueueWait = wait;
+        return new ConcurrencyLimiter(config);
+    }
+
+    @Test
+    public void growsWhileBusyAndHealthy() throws Exception {
+        ConcurrencyLimiter limiter = limiter(16, 0);
+        assertEquals(4, limiter.getLimit());
+
+        for (int i = 0; i < 100; i++) {
+            long[] slots = new long[limiter.getLimit()];
+            for (int j = 0; j < slots.length; j++) {
+                slots[j] = limiter.acquire(0, Priority.INTERACTIVE);
+            }
+            for (long s : slots) {
+                limiter.release(s, false, Priority.INTERACTIVE);
+            }
+        }
+        assertEquals(16, limiter.getLimit());
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    public void backsOffOnOverload() throws Exception {
+        ConcurrencyLimiter limiter = limiter(40, 0);
+        assertEquals(10, limiter.getLimit());
+
+        limiter.release(limiter.acquire(0, Priority.INTERACTIVE), true, Priority.INTERACTIVE);
+        assertEquals(9, limiter.getLimit());
+        assertEquals(1, limiter.getBackoffs());
+    }
+
+    @Test
+    public void rejectsOverLimit() throws Exception {
+        ConcurrencyLimiter limiter = limiter(4, 50);
+        long slot = limiter.acquire(0, Priority.INTERACTIVE);
+
+        long start = System.nanoTime();
+        try {
+            limiter.acquire(1000, Priority.INTERACTIVE);
+            fail();
+        }
+        catch (IOException e) {
+            // waited up to the configured maximum
+            assertTrue(System.nanoTime() - start >= 40_000_000L);
+        }
+        assertEquals(1, limiter.getRejected());
+
+        limiter.release(slot, false, Priority.INTERACTIVE);
+        limiter.release(limiter.acquire(0, Priority.INTERACTIVE), false, Priority.INTERACTIVE);
+    }
+
+    @Test
+    public void handsOverSlotToWaiter() throws Exception {
+        ConcurrencyLimiter limiter = limiter(4, 5000);
+        long slot = limiter.acquire(0, Priority.INTERACTIVE);
+
+        Thread t = new Thread(() -> {
+            try {
+                Thread.sleep(50);
+            }
+            catch (InterruptedException e) {
+                return;
+            }
+            limiter.release(slot, false, Priority.INTERACTIVE);
+        });
+        t.start();
+
+        limiter.release(limiter.acquire(5000, Priority.INTERACTIVE), false, Priority.INTERACTIVE);
+        t.join();
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    public void bulkGetsShareAndGivesWay() throws Exception {
+        ConcurrencyLimiter limiter = limiter(16, 0);
+        assertEquals(2, limiter.getBulkLimit());
+
+        long b1 = limiter.acquire(0, Priority.BULK);
+        long b2 = limiter.acquire(0, Priority.BULK);
+        try {
+            limiter.acquire(0, Priority.BULK);
+            fail();
+        }
+        catch (IOException e) {
+            // over the bulk share
+        }
+        assertEquals(2, limiter.getBulkInFlight());
+
+        // interactive requests still get the rest of the limit
+        long i1 = limiter.acquire(0, Priority.INTERACTIVE);
+        long i2 = limiter.acquire(0, Priority.INTERACTIVE);
+        assertEquals(4, limiter.getInFlight());
+
+        limiter.release(b1, false, Priority.BULK);
+        limiter.release(b2, false, Priority.BULK);
+        limiter.release(i1, false, Priority.INTERACTIVE);
+        limiter.release(i2, false, Priority.INTERACTIVE);
+        assertEquals(0, limiter.getBulkInFlight());
+    }
+
+    @Test
+    public void backsOffOnSlowFirstByte() throws Exception {
+        ConcurrencyLimiter limiter = limiter(40, 0);
+        for (int i = 0; i < 10; i++) {
+            limiter.acquire(0, Priority.INTERACTIVE);
+            limiter.release(false, Priority.INTERACTIVE, 1_000_000L);
+        }
+        assertEquals(0, limiter.getBackoffs());
+
+        limiter.acquire(0, Priority.INTERACTIVE);
+        limiter.release(false, Priority.INTERACTIVE, 100_000_000L);
+        assertEquals(1, limiter.getBackoffs());
+    }
+
+    @Test
+    public void sharedByStoresOfBackend() throws Exception {
+        VoyagerConfig config = new VoyagerConfig();
+        config.uri = "http://localhost:8888/shared";
+        config.maxConcurrency = 8;
+        ConcurrencyLimiter limiter = ConcurrencyLimiter.of(config);
+
+        // the store created last configures the limiter
+        config.maxConcurrency = 4;
+        assertSame(limiter, ConcurrencyLimiter.of(config));
+        assertEquals(4, limiter.getMaxLimit());
+        assertTrue(limiter.getLimit() <= 4);
+
+        // and it's unregistered once both are disposed
+        limiter.dispose(config.uri);
+        assertSame(limiter, ConcurrencyLimiter.BACKENDS.get(config.uri));
+        limiter.dispose(config.uri);
+        assertFalse(ConcurrencyLimiter.BACKENDS.containsKey(config.uri));
+        assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(ConcurrencyLimiter.name(config.uri)));
+    }
+}
@@ -0,0 +1,49 @@
+package org.geoserver.voyager;
+
+import org.apache.solr.common.util.JavaBinCodec;
+import org.apache.solr.common.util.NamedList;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class CountingResponseParserTest {
+
+    byte[] body() throws IOException {
+        NamedList<Object> rsp = new NamedList<>();
+        rsp.add("foo", "bar");
+        rsp.add("baz", 42);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new JavaBinCodec().marshal(rsp, out);
+        return out.toByteArray();
+    }
+
+    @Test
+    public void countsBytes() throws IOException {
+        byte[] body = body();
+        CountingResponseParser parser = new CountingResponseParser();
+        NamedList<Object> rsp = parser.processResponse(new ByteArrayInputStream(body), null);
+
+        assertEquals("bar", rsp.get("foo"));
+        assertEquals(body.length, parser.getBytes());
+        assertNull(parser.getCaptured());
+    }
+
+    @Test
+    public void capturesSmallBodies() throws IOException {
+        byte[] body = body();
+        CountingResponseParser parser = new CountingResponseParser().capture(body.length);
+        parser.processResponse(new ByteArrayInputStream(body), null);
+        assertArrayEquals(body, parser.getCaptured());
+
+        parser = new CountingResponseParser().capture(body.length - 1);
+        parser.processResponse(new ByteArrayInputStream(body), null);
+        assertNull(parser.getCaptured());
+    }
+}
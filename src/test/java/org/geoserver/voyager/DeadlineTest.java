@@ -0,0 +1,93 @@
+package org.geoserver.voyager;
+
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.response.QueryResponse;
+import org.apache.solr.common.params.CommonParams;
+import org.apache.solr.common.util.NamedList;
+import org.geotools.data.Query;
+import org.geotools.util.factory.Hints;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.InterruptedIOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class DeadlineTest {
+
+    @After
+    public void unbind() {
+        Deadline.unbind();
+    }
+
+    @Test
+    public void unboundedByDefault() {
+        Deadline d = Deadline.of(new Query(), new VoyagerConfig());
+        assertSame(Deadline.NONE, d);
+        assertFalse(d.expired());
+
+        SolrQuery q = new SolrQuery();
+        d.apply(q);
+        assertNull(q.get(CommonParams.TIME_ALLOWED));
+    }
+
+    @Test
+    public void earliestWins() {
+        VoyagerConfig config = new VoyagerConfig();
+        config.maxQueryTime = 60000;
+        Deadline.bind(Deadline.in(30000));
+
+        Query query = new Query();
+        query.setHints(new Hints(Deadline.HINT, 5000L));
+
+        Deadline d = Deadline.of(query, config);
+        assertTrue(d.remaining() <= 5000);
+
+        SolrQuery q = new SolrQuery();
+        d.apply(q);
+        assertTrue(q.getInt(CommonParams.TIME_ALLOWED) <= 5000);
+        assertEquals("true", q.get(CommonParams.SEGMENT_TERMINATE_EARLY));
+    }
+
+    @Test
+    public void keepsHeaderWhenBounded() {
+        SolrQuery q = new SolrQuery();
+        q.set(CommonParams.OMIT_HEADER, true);
+        Deadline.NONE.apply(q);
+        assertEquals("true", q.get(CommonParams.OMIT_HEADER));
+
+        Deadline.in(5000).apply(q);
+        assertNull(q.get(CommonParams.OMIT_HEADER));
+    }
+
+    @Test
+    public void failsPartialResults() throws Exception {
+        NamedList<Object> header = new NamedList<>();
+        header.add("status", 0);
+        NamedList<Object> body = new NamedList<>();
+        body.add("responseHeader", header);
+        QueryResponse rsp = new QueryResponse(body, null);
+        assertSame(rsp, Deadline.complete(rsp));
+
+        header.add("partialResults", true);
+        try {
+            Deadline.complete(rsp);
+            fail();
+        }
+        catch (InterruptedIOException expected) {
+        }
+    }
+
+    @Test(expected = InterruptedIOException.class)
+    public void expires() throws Exception {
+        Deadline d = new Deadline(System.nanoTime() - 1);
+        assertTrue(d.expired());
+        assertEquals(0, d.remaining());
+        d.check();
+    }
+}
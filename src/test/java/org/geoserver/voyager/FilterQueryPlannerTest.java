@@ -0,0 +1,47 @@
+package org.geoserver.voyager;
+
+import org.geotools.factory.CommonFactoryFinder;
+import org.junit.Test;
+import org.opengis.filter.Filter;
+import org.opengis.filter.FilterFactory2;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FilterQueryPlannerTest {
+
+    FilterFactory2 ff = CommonFactoryFinder.getFilterFactory2();
+
+    @Test
+    public void splitsConjunctions() throws Exception {
+        Filter filter = ff.and(
+                ff.bbox("geohash", -10, -10, 10, 10, "EPSG:4326"),
+                ff.equals(ff.property("format"), ff.literal("pdf")));
+
+        List<String> fqs = new FilterQueryPlanner(null, VoyagerConfig.local()).plan(filter);
+        assertEquals(2, fqs.size());
+        assertTrue(fqs.get(0), fqs.get(0).startsWith("{!cache=false cost=100}geohash:\"Intersects("));
+        assertEquals("format:\"pdf\"", fqs.get(1));
+    }
+
+    @Test
+    public void mergesLocalParams() {
+        assertEquals("{!terms cache=false cost=50 f=id v='a,b'}",
+                FilterQueryPlanner.withLocalParams("{!terms f=id v='a,b'}", "cache=false cost=50"));
+        assertEquals("{!cache=false cost=50 type=terms f=id v='a}b'}",
+                FilterQueryPlanner.withLocalParams("{!type=terms f=id v='a}b'}", "cache=false cost=50"));
+        assertEquals("{!cache=false}_query_:\"{!terms f=id v='a'}\" OR id:b",
+                FilterQueryPlanner.withLocalParams("{!terms f=id v='a'} OR id:b", "cache=false"));
+    }
+
+    @Test
+    public void nestsLeadingLocalParams() {
+        assertEquals("_query_:\"{!geofilt sfield=geo pt=1,2 d=3}\" OR format:pdf",
+                FilterQueryPlanner.selfContained("{!geofilt sfield=geo pt=1,2 d=3} OR format:pdf"));
+        assertEquals("{!prefix f=name v='a} b'}",
+                FilterQueryPlanner.selfContained("{!prefix f=name v='a} b'}"));
+        assertEquals("format:pdf", FilterQueryPlanner.selfContained("format:pdf"));
+    }
+}
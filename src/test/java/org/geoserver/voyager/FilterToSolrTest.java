@@ -0,0 +1,149 @@
+package org.geoserver.voyager;
+
+import org.geotools.factory.CommonFactoryFinder;
+import org.junit.Before;
+import org.junit.Test;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.Point;
+import org.opengis.filter.Filter;
+import org.opengis.filter.FilterFactory2;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FilterToSolrTest {
+
+    FilterFactory2 ff = CommonFactoryFinder.getFilterFactory2();
+
+    VoyagerConfig config;
+
+    @Before
+    public void setup() {
+        config = VoyagerConfig.local();
+    }
+
+    String encode(Filter filter) throws Exception {
+        return new FilterToSolr(null, config).encodeToString(filter);
+    }
+
+    @Test
+    public void idsAsTerms() throws Exception {
+        Filter f = ff.id(ff.featureId("a"), ff.featureId("b"), ff.featureId("c"), ff.featureId("d"));
+        String fq = encode(f);
+        assertTrue(fq, fq.startsWith("{!terms f=id method=termsFilter v='"));
+    }
+
+    @Test
+    public void fewIdsAsClauses() throws Exception {
+        assertEquals(" (id:\"a\") ", encode(ff.id(ff.featureId("a"))));
+    }
+
+    @Test
+    public void orChainAsTerms() throws Exception {
+        List<Filter> children = new ArrayList<>();
+        for (String v : new String[]{"a", "b", "c", "d"}) {
+            children.add(ff.equals(ff.property("format"), ff.literal(v)));
+        }
+        children.add(ff.equals(ff.property("owner"), ff.literal("bob")));
+
+        assertEquals("_query_:\"{!terms f=format method=termsFilter v='a,b,c,d'}\" OR owner:\"bob\"",
+                encode(ff.or(children)));
+    }
+
+    @Test
+    public void onlyTermsInOrChain() throws Exception {
+        List<Filter> children = new ArrayList<>();
+        for (String v : new String[]{"a", "b", "c", "d"}) {
+            children.add(ff.equals(ff.property("format"), ff.literal(v)));
+        }
+        assertEquals("{!terms f=format method=termsFilter v='a,b,c,d'}", encode(ff.or(children)));
+    }
+
+    @Test
+    public void idsAsTermsInAndChain() throws Exception {
+        Filter ids = ff.id(ff.featureId("a"), ff.featureId("b\\"), ff.featureId("c"), ff.featureId("d"));
+        String fq = encode(ff.and(ids, ff.equals(ff.property("owner"), ff.literal("bob"))));
+        assertTrue(fq, fq.startsWith("_query_:\"{!terms f=id method=termsFilter v='"));
+        assertTrue(fq, fq.contains("b\\\\\\\\"));
+        assertTrue(fq, fq.endsWith("'}\" AND owner:\"bob\""));
+    }
+
+    @Test
+    public void orChainWithSeparatorInValues() throws Exception {
+        List<Filter> children = new ArrayList<>();
+        for (String v : new String[]{"a,1", "b", "c", "d"}) {
+            children.add(ff.equals(ff.property("format"), ff.literal(v)));
+        }
+        assertTrue(encode(ff.or(children)).startsWith("format:\"a,1\" OR "));
+    }
+
+    @Test
+    public void inFunctionAsTerms() throws Exception {
+        Filter f = ff.equals(ff.function("in", ff.property("format"),
+                ff.literal("a"), ff.literal("b'"), ff.literal("c"), ff.literal("d")), ff.literal(true));
+        assertEquals("{!terms f=format method=termsFilter v='a,b\\',c,d'}", encode(f));
+    }
+
+    @Test
+    public void notInFunctionAsNestedTerms() throws Exception {
+        Filter f = ff.equals(ff.function("in", ff.property("format"),
+                ff.literal("a"), ff.literal("b"), ff.literal("c"), ff.literal("d")), ff.literal(false));
+        assertEquals("-_query_:\"{!terms f=format method=termsFilter v='a,b,c,d'}\"", encode(f));
+    }
+
+    @Test
+    public void likeFirstInChain() throws Exception {
+        Filter prefix = ff.like(ff.property("name"), "o'foo%", "%", "_", "!");
+        Filter suffix = ff.like(ff.property("name"), "%bar", "%", "_", "!");
+        assertEquals("_query_:\"{!prefix f=name v='o\\\\'foo'}\" OR name:*bar", encode(ff.or(prefix, suffix)));
+        assertEquals("_query_:\"{!term f=name v='foo'}\" AND owner:\"bob\"",
+                encode(ff.and(ff.like(ff.property("name"), "foo", "%", "_", "!"),
+                        ff.equals(ff.property("owner"), ff.literal("bob")))));
+    }
+
+    @Test
+    public void notLike() throws Exception {
+        assertEquals("NOT (_query_:\"{!prefix f=name v='foo'}\")",
+                encode(ff.not(ff.like(ff.property("name"), "foo%", "%", "_", "!"))));
+    }
+
+    @Test
+    public void pointBBoxAsRange() throws Exception {
+        config.spatialStrategy = SpatialStrategy.LATLON_POINT;
+        assertEquals("geo:[-5.0,-10.0 TO 5.0,10.0]",
+                encode(ff.bbox("geo", -10, -5, 10, 5, "EPSG:4326")));
+    }
+
+    @Test
+    public void dwithinAsGeofilt() throws Exception {
+        config.spatialStrategy = SpatialStrategy.LATLON_POINT;
+        Point p = new GeometryFactory().createPoint(new Coordinate(10, 20));
+        assertEquals("{!geofilt sfield=geo pt=20.0,10.0 d=2.5}",
+                encode(ff.dwithin(ff.property("geo"), ff.literal(p), 2500, "m")));
+    }
+
+    @Test
+    public void dwithinShapeAsWidenedBuffer() throws Exception {
+        config.spatialStrategy = SpatialStrategy.RPT;
+        GeometryFactory gf = new GeometryFactory();
+        Filter f = ff.dwithin(ff.property("geo"), ff.literal(gf.createLineString(
+            new Coordinate[]{new Coordinate(0, 59), new Coordinate(1, 60)})), 111.1950802335329, "km");
+        String fq = encode(f);
+        assertTrue(fq, fq.startsWith("geo:\"Intersects(BUFFER(LINESTRING"));
+
+        // a degree of distance at latitude 61 spans about two degrees of longitude
+        double buffer = Double.parseDouble(fq.substring(fq.lastIndexOf(", ") + 2, fq.indexOf(')', fq.lastIndexOf(", "))));
+        assertEquals(1 / Math.cos(Math.toRadians(61)), buffer, 1e-9);
+    }
+
+    @Test
+    public void bboxFieldAsEnvelope() throws Exception {
+        config.spatialStrategy = SpatialStrategy.BBOX;
+        assertEquals("geo:\"Intersects(ENVELOPE(-10.0, 10.0, 5.0, -5.0))\"",
+                encode(ff.bbox("geo", -10, -5, 10, 5, "EPSG:4326")));
+    }
+}
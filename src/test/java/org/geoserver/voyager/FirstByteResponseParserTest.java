@@ -0,0 +1,40 @@
+package org.geoserver.voyager;
+
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.request.QueryRequest;
+import org.apache.solr.client.solrj.response.QueryResponse;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FirstByteResponseParserTest {
+
+    @Test
+    public void timesFirstByte() throws Exception {
+        MockSolrClient solr = new MockSolrClient().add("a").add("b");
+        QueryRequest req = new QueryRequest(new SolrQuery("*:*"));
+        FirstByteResponseParser parser = FirstByteResponseParser.time(req);
+
+        long start = System.nanoTime();
+        QueryResponse rsp = req.process(solr);
+        assertEquals(2, rsp.getResults().size());
+
+        // the time a slow consumer takes afterwards doesn't count
+        long ttfb = parser.since(start);
+        Thread.sleep(50);
+        assertEquals(ttfb, parser.since(start));
+    }
+
+    @Test
+    public void timesToNowWithoutResponse() throws Exception {
+        QueryRequest req = new QueryRequest(new SolrQuery("*:*"));
+        FirstByteResponseParser parser = FirstByteResponseParser.time(req);
+
+        long start = System.nanoTime();
+        Thread.sleep(50);
+        assertTrue(parser.since(start) >= TimeUnit.MILLISECONDS.toNanos(50));
+    }
+}
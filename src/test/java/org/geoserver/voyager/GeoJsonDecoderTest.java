@@ -0,0 +1,74 @@
+package org.geoserver.voyager;
+
+import org.junit.Test;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.LineString;
+import org.locationtech.jts.geom.Polygon;
+import org.locationtech.jts.geom.PrecisionModel;
+import org.locationtech.jts.geom.impl.PackedCoordinateSequence;
+import org.locationtech.jts.geom.impl.PackedCoordinateSequenceFactory;
+import org.locationtech.jts.io.WKTReader;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class GeoJsonDecoderTest {
+
+    GeometryFactory factory = new GeometryFactory(new PrecisionModel(), 0, PackedCoordinateSequenceFactory.DOUBLE_FACTORY);
+
+    Geometry decode(String json) {
+        return new GeoJsonDecoder(factory).decode(json);
+    }
+
+    Geometry wkt(String wkt) throws Exception {
+        return new WKTReader().read(wkt);
+    }
+
+    @Test
+    public void point() throws Exception {
+        Geometry g = decode("{\"type\":\"Point\",\"coordinates\":[-79.5, 40.25]}");
+        assertTrue(g.equalsExact(wkt("POINT (-79.5 40.25)")));
+    }
+
+    @Test
+    public void polygonIntoPackedSequences() throws Exception {
+        Polygon p = (Polygon) decode("{\"coordinates\": [[[0,0],[10,0],[10,10],[0,10],[0,0]],"
+                + "[[1,1],[2,1],[2,2],[1,1]]], \"type\": \"Polygon\"}");
+        assertTrue(p.equalsExact(wkt("POLYGON ((0 0, 10 0, 10 10, 0 10, 0 0), (1 1, 2 1, 2 2, 1 1))")));
+        assertTrue(p.getExteriorRing().getCoordinateSequence() instanceof PackedCoordinateSequence.Double);
+    }
+
+    @Test
+    public void multiGeometries() throws Exception {
+        assertTrue(decode("{\"type\":\"MultiPolygon\",\"coordinates\":[[[[0,0],[1,0],[1,1],[0,0]]],[[[5,5],[6,5],[6,6],[5,5]]]]}")
+                .equalsExact(wkt("MULTIPOLYGON (((0 0, 1 0, 1 1, 0 0)), ((5 5, 6 5, 6 6, 5 5)))")));
+        assertTrue(decode("{\"type\":\"MultiLineString\",\"coordinates\":[[[0,0],[1,1]],[[2,2],[3,3]]]}")
+                .equalsExact(wkt("MULTILINESTRING ((0 0, 1 1), (2 2, 3 3))")));
+        assertTrue(decode("{\"type\":\"MultiPoint\",\"coordinates\":[[0,0],[1,1]]}")
+                .equalsExact(wkt("MULTIPOINT ((0 0), (1 1))")));
+        assertTrue(decode("{\"type\":\"GeometryCollection\",\"geometries\":[{\"type\":\"Point\",\"coordinates\":[1,2]},"
+                + "{\"type\":\"LineString\",\"coordinates\":[[0,0],[1,1]]}]}")
+                .equalsExact(wkt("GEOMETRYCOLLECTION (POINT (1 2), LINESTRING (0 0, 1 1))")));
+    }
+
+    @Test
+    public void numbers() {
+        LineString l = (LineString) decode("{\"type\":\"LineString\",\"bbox\":[0,0,1,1],\"coordinates\":"
+                + "[[1.5e2, -0.000123], [123456789.123456789123, 1E-3], [-7, 3.14159265358979]]}");
+        assertEquals(150, l.getCoordinateN(0).x, 0);
+        assertEquals(-0.000123, l.getCoordinateN(0).y, 0);
+        assertEquals(123456789.123456789123, l.getCoordinateN(1).x, 0);
+        assertEquals(0.001, l.getCoordinateN(1).y, 0);
+        assertEquals(-7, l.getCoordinateN(2).x, 0);
+        assertEquals(3.14159265358979, l.getCoordinateN(2).y, 0);
+    }
+
+    @Test
+    public void fixedPrecision() {
+        factory = new GeometryFactory(new PrecisionModel(100), 0, PackedCoordinateSequenceFactory.DOUBLE_FACTORY);
+        Geometry g = decode("{\"type\":\"Point\",\"coordinates\":[1.23456, 2.98765]}");
+        assertEquals(1.23, g.getCoordinate().x, 0);
+        assertEquals(2.99, g.getCoordinate().y, 0);
+    }
+}
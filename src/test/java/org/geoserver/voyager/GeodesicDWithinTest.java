@@ -0,0 +1,44 @@
+package org.geoserver.voyager;
+
+import org.geotools.factory.CommonFactoryFinder;
+import org.junit.Test;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.LineString;
+import org.opengis.filter.Filter;
+import org.opengis.filter.FilterFactory2;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class GeodesicDWithinTest {
+
+    FilterFactory2 ff = CommonFactoryFinder.getFilterFactory2();
+    GeometryFactory gf = new GeometryFactory();
+
+    LineString meridian(double x) {
+        return gf.createLineString(new Coordinate[]{new Coordinate(x, 59.5), new Coordinate(x, 60.5)});
+    }
+
+    @Test
+    public void measuresInKilometers() {
+        // a tenth of a degree of longitude at latitude 60 is about 5.6km
+        GeodesicDWithin within = new GeodesicDWithin(ff.property("geo"), ff.literal(meridian(0)), 6);
+        assertTrue(within.evaluateInternal(meridian(0.1), meridian(0)));
+
+        within = new GeodesicDWithin(ff.property("geo"), ff.literal(meridian(0)), 5);
+        assertFalse(within.evaluateInternal(meridian(0.1), meridian(0)));
+    }
+
+    @Test
+    public void replacesBufferedDistances() {
+        Filter buffered = ff.dwithin(ff.property("geo"), ff.literal(meridian(0)), 2500, "m");
+        Filter exact = GeodesicDWithin.exact(ff.and(buffered, ff.equals(ff.property("name"), ff.literal("a"))));
+        assertTrue(exact.toString(), exact.toString().contains("km"));
+
+        // circles around points are exact already
+        Filter circle = ff.dwithin(ff.property("geo"), ff.literal(gf.createPoint(new Coordinate(0, 60))), 2500, "m");
+        assertNull(GeodesicDWithin.exact(circle));
+    }
+}
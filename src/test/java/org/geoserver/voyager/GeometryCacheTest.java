@@ -0,0 +1,42 @@
+package org.geoserver.voyager;
+
+import org.junit.Test;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class GeometryCacheTest {
+
+    GeometryFactory gf = new GeometryFactory();
+
+    @Test
+    public void keyedByVersion() {
+        VoyagerConfig config = new VoyagerConfig();
+        config.geometryCacheSize = 1024;
+        GeometryCache cache = new GeometryCache(config);
+
+        Geometry p = gf.createPoint(new Coordinate(1, 2));
+        cache.put("1", 100L, p);
+        assertSame(p, cache.get("1", 100L));
+        assertNull(cache.get("1", 101L));
+        assertNull(cache.get("2", 100L));
+    }
+
+    @Test
+    public void boundedBySize() {
+        VoyagerConfig config = new VoyagerConfig();
+        config.geometryCacheSize = 10 * GeometryCache.COORDINATE;
+        GeometryCache cache = new GeometryCache(config);
+
+        Coordinate[] ring = new Coordinate[64];
+        for (int i = 0; i < ring.length - 1; i++) {
+            ring[i] = new Coordinate(Math.cos(i), Math.sin(i));
+        }
+        ring[ring.length - 1] = ring[0];
+        cache.put("1", 1L, gf.createPolygon(ring));
+        assertNull(cache.get("1", 1L));
+    }
+}
@@ -0,0 +1,54 @@
+package org.geoserver.voyager;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class HedgePolicyTest {
+
+    HedgePolicy policy(double percentile, double budget) {
+        VoyagerConfig config = new VoyagerConfig();
+        config.hedgePercentile = percentile;
+        config.hedgeBudget = budget;
+        return new HedgePolicy(config);
+    }
+
+    @Test
+    public void disabledByDefault() {
+        HedgePolicy policy = new HedgePolicy(new VoyagerConfig());
+        for (int i = 0; i < 100; i++) {
+            policy.record(1000000);
+        }
+        assertEquals(-1, policy.delay());
+    }
+
+    @Test
+    public void delayIsPercentileOfRecentLatency() {
+        HedgePolicy policy = policy(0.9, 1);
+        for (int i = 1; i <= 100; i++) {
+            policy.record(i * 1000000L);
+        }
+        assertEquals(90, policy.delay());
+    }
+
+    @Test
+    public void budgetBoundsHedges() {
+        HedgePolicy policy = policy(0.5, 0.1);
+        for (int i = 0; i < 100; i++) {
+            policy.record(1000000);
+        }
+
+        int hedges = 0;
+        for (int i = 0; i < 1000; i++) {
+            if (policy.delay() >= 0 && policy.spend()) {
+                hedges++;
+            }
+        }
+        assertTrue(hedges <= 100);
+        assertTrue(hedges >= 90);
+        assertEquals(hedges, policy.getHedged());
+        assertFalse(policy.spend());
+    }
+}
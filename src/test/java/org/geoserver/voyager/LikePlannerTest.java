@@ -0,0 +1,68 @@
+package org.geoserver.voyager;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class LikePlannerTest {
+
+    LikePlanner planner;
+    VoyagerField name;
+
+    @Before
+    public void setup() {
+        planner = new LikePlanner("%", "_", "!");
+
+        name = new VoyagerField("name", "string", null);
+
+        VoyagerField lower = new VoyagerField("name_lc", "lowercase", null);
+        lower.lowercase = true;
+        name.copies.add(lower);
+
+        VoyagerField ngram = new VoyagerField("name_ngram", "ngram", null);
+        ngram.lowercase = true;
+        ngram.minGram = 2;
+        ngram.maxGram = 10;
+        name.copies.add(ngram);
+
+        VoyagerField reversed = new VoyagerField("name_rev", "reversed", null);
+        reversed.reversedWildcards = true;
+        name.copies.add(reversed);
+    }
+
+    @Test
+    public void exact() {
+        assertEquals("{!term f=name v='foo'}", planner.encode("name", null, "foo", true));
+        assertEquals("{!term f=name v='100%'}", planner.encode("name", null, "100!%", true));
+    }
+
+    @Test
+    public void prefix() {
+        assertEquals("{!prefix f=name v='a b'}", planner.encode("name", null, "a b%", true));
+    }
+
+    @Test
+    public void wildcard() {
+        assertEquals("name:f?o*bar", planner.encode("name", null, "f_o%bar", true));
+        assertEquals("name:a\\ b*c", planner.encode("name", null, "a b%%c", true));
+    }
+
+    @Test
+    public void caseInsensitiveUsesLowercaseCopy() {
+        assertEquals("{!prefix f=name_lc v='foo'}", planner.encode("name", name, "Foo%", false));
+        assertEquals("{!prefix f=name v='Foo'}", planner.encode("name", name, "Foo%", true));
+    }
+
+    @Test
+    public void substringUsesNGrams() {
+        assertEquals("{!term f=name_ngram v='oo'}", planner.encode("name", name, "%OO%", false));
+        // longer than the largest gram
+        assertEquals("name_lc:*abcdefghijk*", planner.encode("name", name, "%abcdefghijk%", false));
+    }
+
+    @Test
+    public void leadingWildcardUsesReversedCopy() {
+        assertEquals("name_rev:*bar", planner.encode("name", name, "%bar", true));
+    }
+}
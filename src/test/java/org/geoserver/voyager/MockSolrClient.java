@@ -0,0 +1,207 @@
+package org.geoserver.voyager;
+
+import org.apache.solr.client.solrj.ResponseParser;
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrRequest;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrDocumentList;
+import org.apache.solr.common.params.CommonParams;
+import org.apache.solr.common.params.CursorMarkParams;
+import org.apache.solr.common.params.ModifiableSolrParams;
+import org.apache.solr.common.params.SolrParams;
+import org.apache.solr.common.util.JavaBinCodec;
+import org.apache.solr.common.util.NamedList;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Solr client answering from documents held in memory, so readers can be tested without an index.
+ * <p>
+ * Searches page through all the documents in id order with cursor marks, ignoring filters and
+ * sorts, and real-time gets look documents up by id. The field list is applied as solr does,
+ * including the geo transformer, which turns points stored as WKT into geojson. Responses are
+ * written as javabin and read back through the parser of the request.
+ * </p>
+ */
+class MockSolrClient extends SolrClient {
+
+    /**
+     * Called with the parameters of each search before it's answered, eg. to hold or fail it.
+     */
+    interface Hook {
+        void accept(SolrParams params) throws IOException;
+    }
+
+    final Map<String, SolrDocument> docs = Collections.synchronizedMap(new TreeMap<>());
+    final Map<String, String> types = new LinkedHashMap<>();
+    final Map<String, List<SolrParams>> requests = new ConcurrentHashMap<>();
+
+    volatile Hook onSearch = params -> {};
+
+    /**
+     * Adds a field to the schema reported by luke.
+     */
+    MockSolrClient field(String name, String type) {
+        types.put(name, type);
+        return this;
+    }
+
+    /**
+     * Adds a document, with its fields as name and value pairs.
+     */
+    MockSolrClient add(String id, Object... fields) {
+        SolrDocument doc = new SolrDocument();
+        doc.setField("id", id);
+        for (int i = 0; i < fields.length; i += 2) {
+            doc.setField((String) fields[i], fields[i + 1]);
+        }
+        docs.put(id, doc);
+        return this;
+    }
+
+    /**
+     * The parameters of the requests made to a handler, eg. /select or /get.
+     */
+    List<SolrParams> requests(String path) {
+        return requests.getOrDefault(path, Collections.emptyList());
+    }
+
+    @Override
+    public NamedList<Object> request(SolrRequest request, String collection) throws SolrServerException, IOException {
+        String path = request.getPath() != null ? request.getPath() : "/select";
+        SolrParams params = request.getParams() != null ? request.getParams() : new ModifiableSolrParams();
+        requests.computeIfAbsent(path, p -> new CopyOnWriteArrayList<>()).add(new ModifiableSolrParams(params));
+
+        NamedList<Object> header = new NamedList<>();
+        header.add("status", 0);
+        header.add("QTime", 1);
+        NamedList<Object> rsp = new NamedList<>();
+        rsp.add("responseHeader", header);
+        switch (path) {
+            case "/admin/luke":
+                luke(params, rsp);
+                break;
+            case "/get":
+                get(params, rsp);
+                break;
+            default:
+                onSearch.accept(params);
+                search(params, rsp);
+        }
+
+        ResponseParser parser = request.getResponseParser();
+        if (parser == null) {
+            return rsp;
+        }
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        new JavaBinCodec().marshal(rsp, body);
+        return parser.processResponse(new ByteArrayInputStream(body.toByteArray()), null);
+    }
+
+    void search(SolrParams params, NamedList<Object> rsp) {
+        List<SolrDocument> all;
+        synchronized (docs) {
+            all = new ArrayList<>(docs.values());
+        }
+        int rows = params.getInt(CommonParams.ROWS, 10);
+        String mark = params.get(CursorMarkParams.CURSOR_MARK_PARAM);
+        int start = mark == null || CursorMarkParams.CURSOR_MARK_START.equals(mark)
+            ? params.getInt(CommonParams.START, 0) : Integer.parseInt(mark);
+
+        SolrDocumentList list = new SolrDocumentList();
+        list.setNumFound(all.size());
+        list.setStart(start);
+        for (int i = start; i < Math.min(all.size(), start + rows); i++) {
+            list.add(project(all.get(i), params.get(CommonParams.FL)));
+        }
+        rsp.add("response", list);
+        if (mark != null) {
+            rsp.add(CursorMarkParams.CURSOR_MARK_NEXT, String.valueOf(start + list.size()));
+        }
+    }
+
+    void get(SolrParams params, NamedList<Object> rsp) {
+        SolrDocumentList list = new SolrDocumentList();
+        String[] ids = params.getParams("ids");
+        for (String id : ids != null ? ids : new String[0]) {
+            SolrDocument doc = docs.get(id.replace("\\,", ",").replace("\\\\", "\\"));
+            if (doc != null) {
+                list.add(project(doc, params.get(CommonParams.FL)));
+            }
+        }
+        list.setNumFound(list.size());
+        rsp.add("response", list);
+    }
+
+    void luke(SolrParams params, NamedList<Object> rsp) {
+        NamedList<Object> index = new NamedList<>();
+        index.add("numDocs", docs.size());
+        index.add("version", 1L);
+        rsp.add("index", index);
+        if ("schema".equals(params.get("show"))) {
+            rsp.add("schema", new NamedList<>());
+        }
+
+        NamedList<Object> fields = new NamedList<>();
+        for (Map.Entry<String, String> e : types.entrySet()) {
+            NamedList<Object> info = new NamedList<>();
+            info.add("type", e.getValue());
+            info.add("schema", "I-S-------------");
+            info.add("docs", docs.size());
+            info.add("distinct", 0);
+            fields.add(e.getKey(), info);
+        }
+        rsp.add("fields", fields);
+    }
+
+    /*
+     * Applies a field list to a document.
+     */
+    static SolrDocument project(SolrDocument doc, String fl) {
+        SolrDocument projected = new SolrDocument();
+        if (fl == null) {
+            projected.putAll(doc);
+            return projected;
+        }
+        for (String f : fl.split(",")) {
+            f = f.trim();
+            if (f.equals("*")) {
+                projected.putAll(doc);
+            }
+            else if (f.endsWith(":[geo]")) {
+                String name = f.substring(0, f.indexOf(':'));
+                Object wkt = doc.get(name);
+                if (wkt != null) {
+                    projected.setField(name, geoJson(wkt.toString()));
+                }
+            }
+            else if (doc.containsKey(f)) {
+                projected.setField(f, doc.get(f));
+            }
+        }
+        return projected;
+    }
+
+    /*
+     * The geojson of a point stored as WKT, eg. POINT (1 2).
+     */
+    static String geoJson(String wkt) {
+        String[] xy = wkt.substring(wkt.indexOf('(') + 1, wkt.indexOf(')')).trim().split("\\s+");
+        return "{\"type\":\"Point\",\"coordinates\":[" + xy[0] + "," + xy[1] + "]}";
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,69 @@
+package org.geoserver.voyager;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PageSizerTest {
+
+    VoyagerConfig config;
+
+    @Before
+    public void setup() {
+        config = VoyagerConfig.local();
+        config.pageSize = 100;
+        config.maxPageSize = 1000;
+        config.pageBytes = 100000;
+        config.pageLatency = 2000;
+    }
+
+    @Test
+    public void firstPageMatchesLimit() {
+        assertEquals(10, new PageSizer(config, 10).next());
+        assertEquals(1000, new PageSizer(config, 50000).next());
+        assertEquals(100, new PageSizer(config, null).next());
+    }
+
+    @Test
+    public void stopsAtLimit() {
+        PageSizer pages = new PageSizer(config, 150);
+        assertEquals(150, pages.next());
+        pages.update(120, 0, 10);
+        assertFalse(pages.done());
+        assertEquals(30, pages.next());
+        pages.update(30, 0, 10);
+        assertTrue(pages.done());
+    }
+
+    @Test
+    public void growsTowardsByteBudget() {
+        PageSizer pages = new PageSizer(config, null);
+        // 100 byte documents, budget allows 1000 but growth is limited to doubling
+        pages.update(100, 10000, 10);
+        assertEquals(200, pages.next());
+        pages.update(200, 20000, 10);
+        assertEquals(400, pages.next());
+
+        // 1000 byte documents, budget allows 100
+        pages.update(400, 400000, 10);
+        assertEquals(100, pages.next());
+    }
+
+    @Test
+    public void backsOffWhenSlow() {
+        PageSizer pages = new PageSizer(config, null);
+        pages.update(100, 10000, 10);
+        pages.update(200, 20000, 10);
+        assertEquals(400, pages.next());
+
+        pages.update(400, 40000, 5000);
+        assertEquals(200, pages.next());
+        pages.update(200, 20000, 5000);
+        assertEquals(100, pages.next());
+        pages.update(100, 10000, 5000);
+        assertEquals(100, pages.next());
+    }
+}
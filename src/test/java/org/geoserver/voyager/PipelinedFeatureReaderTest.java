@@ -0,0 +1,219 @@
+package org.geoserver.voyager;
+
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.common.params.CursorMarkParams;
+import org.geotools.data.Query;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opengis.feature.simple.SimpleFeature;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PipelinedFeatureReaderTest {
+
+    MockSolrClient solr;
+    VoyagerConfig config;
+    VoyagerDataStore store;
+
+    @Before
+    public void setup() {
+        solr = new MockSolrClient().field("name", "string");
+        for (int i = 0; i < 300; i++) {
+            solr.add(String.format("f%03d", i), "geo", "POINT (" + i + " " + i + ")", "name", "n" + i);
+        }
+
+        config = VoyagerConfig.local();
+        config.uri = "http://mock-pipeline";
+        config.geoField = "geo";
+        config.spatialStrategy = SpatialStrategy.RPT;
+        config.pageSize = 100;
+        config.maxPageSize = 100;
+        config.decodeThreads = 2;
+        config.pipelineDepth = 2;
+
+        MockSolrClient client = solr;
+        store = new VoyagerDataStore(config) {
+            @Override
+            SolrClient buildSolrClient(VoyagerConfig config, String uri) {
+                return client;
+            }
+        };
+    }
+
+    @After
+    public void dispose() {
+        store.dispose();
+    }
+
+    PipelinedFeatureReader reader() throws Exception {
+        return reader(Priority.BULK);
+    }
+
+    PipelinedFeatureReader reader(Priority priority) throws Exception {
+        VoyagerFeatureSource source = (VoyagerFeatureSource) store.getFeatureSource(config.index);
+        return new PipelinedFeatureReader(new VoyagerFeatureReader(source, source.getSchema(),
+            store.query(source.getSchema(), Query.ALL), null, Deadline.of(null, config), priority));
+    }
+
+    List<String> names(PipelinedFeatureReader reader) throws Exception {
+        List<String> names = new ArrayList<>();
+        while (reader.hasNext()) {
+            names.add((String) reader.next().getAttribute("name"));
+        }
+        return names;
+    }
+
+    @Test
+    public void keepsOrderAcrossBatchesAndPages() throws Exception {
+        List<String> names = new ArrayList<>();
+        try (PipelinedFeatureReader reader = reader()) {
+            while (reader.hasNext()) {
+                names.add((String) reader.next().getAttribute("name"));
+            }
+            assertFalse(reader.hasNext());
+        }
+
+        assertEquals(300, names.size());
+        for (int i = 0; i < 300; i++) {
+            assertEquals("n" + i, names.get(i));
+        }
+        assertTrue(solr.requests("/select").size() >= 3);
+    }
+
+    @Test
+    public void readsInlineUntilBulk() throws Exception {
+        config.bulkThreshold = 150;
+        try (PipelinedFeatureReader reader = reader(null)) {
+            for (int i = 0; i < 100; i++) {
+                assertTrue(reader.hasNext());
+                reader.next();
+            }
+            assertNull(reader.fetcher);
+
+            // the pages after the first two are bulk
+            List<String> names = names(reader);
+            assertEquals(200, names.size());
+            assertEquals("n100", names.get(0));
+            assertNotNull(reader.fetcher);
+        }
+    }
+
+    @Test
+    public void readsInlineWithoutFetchThread() throws Exception {
+        // all fetch threads are busy
+        CountDownLatch hold = new CountDownLatch(1);
+        for (int i = 0; i < config.maxConcurrency; i++) {
+            store.fetchExecutor.execute(() -> {
+                try {
+                    hold.await();
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+        }
+
+        try (PipelinedFeatureReader reader = reader()) {
+            List<String> names = names(reader);
+            assertEquals(300, names.size());
+            assertEquals("n299", names.get(299));
+            assertNull(reader.fetcher);
+            assertTrue(reader.inline);
+        }
+        finally {
+            hold.countDown();
+        }
+    }
+
+    @Test
+    public void failsOnFetchError() throws Exception {
+        solr.onSearch = params -> {
+            if (!CursorMarkParams.CURSOR_MARK_START.equals(params.get(CursorMarkParams.CURSOR_MARK_PARAM))) {
+                throw new IOException("Second page failed");
+            }
+        };
+
+        int read = 0;
+        try (PipelinedFeatureReader reader = reader()) {
+            while (reader.hasNext()) {
+                reader.next();
+                read++;
+            }
+            fail();
+        }
+        catch (IOException e) {
+            // the features of the first page come out before the failure
+            assertEquals(100, read);
+        }
+    }
+
+    @Test
+    public void failsOnDecodeError() throws Exception {
+        solr.add("f150", "geo", "POINT (a b)", "name", "n150");
+
+        try (PipelinedFeatureReader reader = reader()) {
+            while (reader.hasNext()) {
+                reader.next();
+            }
+            fail();
+        }
+        catch (IOException e) {
+            // invalid geometry
+        }
+    }
+
+    @Test
+    public void closeCancelsFetchAndDecodes() throws Exception {
+        CountDownLatch hold = new CountDownLatch(1);
+        solr.onSearch = params -> {
+            if (!CursorMarkParams.CURSOR_MARK_START.equals(params.get(CursorMarkParams.CURSOR_MARK_PARAM))) {
+                try {
+                    hold.await();
+                }
+                catch (InterruptedException e) {
+                    throw new InterruptedIOException();
+                }
+            }
+        };
+
+        ExecutorService exec = Executors.newSingleThreadExecutor();
+        try {
+            PipelinedFeatureReader reader = reader();
+            assertTrue(reader.hasNext());
+            SimpleFeature first = reader.next();
+            assertEquals("n0", first.getAttribute("name"));
+
+            List<Future<List<SimpleFeature>>> queued = new ArrayList<>(reader.queue);
+            reader.close();
+
+            assertTrue(reader.fetcher.isCancelled());
+            assertTrue(reader.reader.closed);
+            for (Future<List<SimpleFeature>> f : queued) {
+                assertTrue(f.isDone());
+            }
+
+            // doesn't wait on the queue once closed
+            assertFalse(exec.submit(reader::hasNext).get(5, TimeUnit.SECONDS));
+        }
+        finally {
+            hold.countDown();
+            exec.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package org.geoserver.voyager;
+
+import org.junit.Test;
+import org.locationtech.jts.geom.Envelope;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PrefetcherTest {
+
+    @Test
+    public void neighboursOfSameSize() {
+        List<Envelope> tiles = Prefetcher.neighbours(new Envelope(0, 10, 0, 10), false);
+        assertEquals(8, tiles.size());
+        assertTrue(tiles.contains(new Envelope(10, 20, 10, 20)));
+        assertTrue(tiles.contains(new Envelope(-10, 0, 0, 10)));
+    }
+
+    @Test
+    public void quartersForNextZoom() {
+        List<Envelope> tiles = Prefetcher.neighbours(new Envelope(0, 10, 0, 10), true);
+        assertEquals(12, tiles.size());
+        assertTrue(tiles.contains(new Envelope(5, 10, 0, 5)));
+    }
+
+    @Test
+    public void skipsTilesOutsideTheWorld() {
+        List<Envelope> tiles = Prefetcher.neighbours(new Envelope(170, 180, 80, 90), false);
+        assertEquals(3, tiles.size());
+    }
+
+    @Test
+    public void neighboursOfBufferedGridTile() {
+        // the tile 22.5, 45 to 45, 67.5 buffered by 1 degree, as a rendering buffer or gutter does
+        Envelope box = new Envelope(21.5, 46, 44, 68.5);
+        List<Envelope> tiles = Prefetcher.neighbours(box, true);
+        assertEquals(12, tiles.size());
+        // moved by the tile rather than the box, keeping the buffer
+        assertTrue(tiles.contains(new Envelope(44, 68.5, 44, 68.5)));
+        assertTrue(tiles.contains(new Envelope(21.5, 46, 21.5, 46)));
+        // quarters with half the buffer, as at the next zoom level
+        assertTrue(tiles.contains(new Envelope(22, 34.25, 44.5, 56.75)));
+    }
+
+    @Test
+    public void gridTileOfBufferedBox() {
+        assertEquals(new Envelope(22.5, 45, 45, 67.5), Prefetcher.gridTile(new Envelope(21.5, 46, 44, 68.5)));
+        assertEquals(new Envelope(-180, 0, -90, 90), Prefetcher.gridTile(new Envelope(-180, 0, -90, 90)));
+        // off the grid
+        assertNull(Prefetcher.gridTile(new Envelope(0, 10, 0, 10)));
+    }
+}
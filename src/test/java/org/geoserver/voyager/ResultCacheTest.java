@@ -0,0 +1,57 @@
+package org.geoserver.voyager;
+
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.response.QueryResponse;
+import org.apache.solr.common.params.CommonParams;
+import org.apache.solr.common.util.NamedList;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ResultCacheTest {
+
+    QueryResponse response(NamedList<Object> header) {
+        NamedList<Object> body = new NamedList<>();
+        if (header != null) {
+            body.add("responseHeader", header);
+        }
+        return new QueryResponse(body, null);
+    }
+
+    @Test
+    public void partialResultsNotCached() {
+        SolrQuery q = new SolrQuery("*:*");
+        q.set(CommonParams.TIME_ALLOWED, 200);
+
+        NamedList<Object> header = new NamedList<>();
+        header.add("status", 0);
+        assertTrue(ResultCache.cacheable(q, response(header)));
+
+        header.add("partialResults", true);
+        assertFalse(ResultCache.cacheable(q, response(header)));
+    }
+
+    @Test
+    public void timeAllowedWithoutHeaderNotCached() {
+        SolrQuery q = new SolrQuery("*:*");
+        assertTrue(ResultCache.cacheable(q, response(null)));
+
+        q.set(CommonParams.TIME_ALLOWED, 200);
+        assertFalse(ResultCache.cacheable(q, response(null)));
+    }
+
+    @Test
+    public void largePagesNotCached() {
+        VoyagerConfig config = new VoyagerConfig();
+        config.resultCacheSize = 160;
+        ResultCache cache = new ResultCache(config);
+
+        cache.put("small", new byte[10]);
+        cache.put("large", new byte[11]);
+        assertArrayEquals(new byte[10], cache.get("small"));
+        assertNull(cache.get("large"));
+    }
+}
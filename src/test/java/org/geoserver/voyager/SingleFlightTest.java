@@ -0,0 +1,138 @@
+package org.geoserver.voyager;
+
+import org.apache.solr.common.params.ModifiableSolrParams;
+import org.junit.Test;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.fail;
+
+public class SingleFlightTest {
+
+    @Test
+    public void sharesConcurrentCalls() throws Exception {
+        SingleFlight<String, Integer> flights = new SingleFlight<>();
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        ExecutorService exec = Executors.newFixedThreadPool(2);
+        try {
+            Future<Integer> first = exec.submit(() -> flights.run("count", 5000, () -> {
+                started.countDown();
+                release.await();
+                return calls.incrementAndGet();
+            }));
+            started.await();
+            Future<Integer> second = exec.submit(() -> flights.run("count", 5000, calls::incrementAndGet));
+
+            while (flights.getShared() == 0) {
+                Thread.sleep(1);
+            }
+            release.countDown();
+
+            assertEquals(1, (int) first.get());
+            assertEquals(1, (int) second.get());
+            assertEquals(1, calls.get());
+        }
+        finally {
+            exec.shutdownNow();
+        }
+
+        // nothing is kept once the call completes
+        assertEquals(2, (int) flights.run("count", 0, calls::incrementAndGet));
+    }
+
+    @Test(expected = CancellationException.class)
+    public void passesOnFailures() throws Exception {
+        new SingleFlight<String, Integer>().run("count", 0, () -> {
+            throw new CancellationException();
+        });
+    }
+
+    @Test
+    public void cancelsJoinersWhenCallerRunsOutOfTime() throws Exception {
+        SingleFlight<String, Integer> flights = new SingleFlight<>();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        ExecutorService exec = Executors.newFixedThreadPool(2);
+        try {
+            Future<Integer> first = exec.submit(() -> flights.run("count", 5000, () -> {
+                started.countDown();
+                release.await();
+                throw new InterruptedIOException("Deadline of Voyager request expired");
+            }));
+            started.await();
+            Future<Integer> second = exec.submit(() -> flights.run("count", 5000, () -> 1));
+
+            while (flights.getShared() == 0) {
+                Thread.sleep(1);
+            }
+            release.countDown();
+
+            // the caller making the call fails, the one waiting on it may still have time to make it
+            try {
+                first.get();
+                fail();
+            }
+            catch (ExecutionException e) {
+                assertEquals(InterruptedIOException.class, e.getCause().getClass());
+            }
+            try {
+                second.get();
+                fail();
+            }
+            catch (ExecutionException e) {
+                assertEquals(CancellationException.class, e.getCause().getClass());
+            }
+        }
+        finally {
+            exec.shutdownNow();
+        }
+    }
+
+    @Test
+    public void keyIgnoresOrder() {
+        ModifiableSolrParams a = new ModifiableSolrParams();
+        a.set("q", "*:*");
+        a.add("fq", "format:pdf");
+        a.add("fq", "owner:bob");
+        a.set("timeAllowed", 1000);
+
+        ModifiableSolrParams b = new ModifiableSolrParams();
+        b.add("fq", "owner:bob");
+        b.add("fq", "format:pdf");
+        b.set("q", "*:*");
+        b.set("timeAllowed", 200);
+
+        assertEquals(SingleFlight.key(null, a), SingleFlight.key("/select", b));
+
+        b.set("rows", 10);
+        assertNotEquals(SingleFlight.key(null, a), SingleFlight.key(null, b));
+    }
+
+    @Test
+    public void keyIgnoresDeadline() {
+        // an unbounded read leaves the header out, a bounded one needs it for partial results
+        ModifiableSolrParams a = new ModifiableSolrParams();
+        a.set("q", "*:*");
+        a.set("omitHeader", true);
+
+        ModifiableSolrParams b = new ModifiableSolrParams();
+        b.set("q", "*:*");
+        b.set("timeAllowed", 200);
+        b.set("segmentTerminateEarly", true);
+
+        assertEquals(SingleFlight.key(null, a), SingleFlight.key(null, b));
+    }
+}
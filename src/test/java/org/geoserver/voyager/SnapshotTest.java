@@ -0,0 +1,137 @@
+package org.geoserver.voyager;
+
+import org.apache.solr.client.solrj.SolrClient;
+import org.geotools.data.Query;
+import org.geotools.data.simple.SimpleFeatureReader;
+import org.geotools.factory.CommonFactoryFinder;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.junit.Before;
+import org.junit.Test;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.Point;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.filter.Filter;
+import org.opengis.filter.FilterFactory2;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class SnapshotTest {
+
+    FilterFactory2 ff = CommonFactoryFinder.getFilterFactory2();
+    GeometryFactory gf = new GeometryFactory();
+
+    Snapshot.Data data;
+
+    @Before
+    public void setup() {
+        SimpleFeatureTypeBuilder tb = new SimpleFeatureTypeBuilder();
+        tb.setName("points");
+        tb.add("geo", Point.class);
+        tb.add("name", String.class);
+        SimpleFeatureType schema = tb.buildFeatureType();
+
+        Map<String, Object[]> rows = new LinkedHashMap<>();
+        for (int i = 9; i >= 0; i--) {
+            rows.put("p" + i, new Object[]{gf.createPoint(new Coordinate(i, i)), i % 2 == 0 ? "even" : "odd"});
+        }
+        data = new Snapshot.Data(schema, "1", null, rows);
+    }
+
+    List<String> read(Query query) throws Exception {
+        List<String> ids = new ArrayList<>();
+        try (SimpleFeatureReader reader = data.reader(query, data.schema)) {
+            while (reader.hasNext()) {
+                ids.add(reader.next().getID());
+            }
+        }
+        return ids;
+    }
+
+    @Test
+    public void countsAndBounds() {
+        Filter bbox = ff.bbox("geo", 2.5, 2.5, 6.5, 6.5, null);
+        assertEquals(10, data.count(Filter.INCLUDE));
+        assertEquals(4, data.count(bbox));
+        assertEquals(2, data.count(ff.and(bbox, ff.equals(ff.property("name"), ff.literal("odd")))));
+        assertEquals(new ReferencedEnvelope(3, 6, 3, 6, null), data.bounds(bbox));
+    }
+
+    @Test
+    public void readsInNaturalOrder() throws Exception {
+        Query query = new Query("points", ff.bbox("geo", 2.5, 2.5, 4.5, 4.5, null));
+        List<String> ids = read(query);
+        assertEquals(2, ids.size());
+        assertEquals("p3", ids.get(0));
+        assertEquals("p4", ids.get(1));
+    }
+
+    @Test
+    public void declinesFiltersSolrEvaluatesDifferently() {
+        SimpleFeatureTypeBuilder tb = new SimpleFeatureTypeBuilder();
+        tb.setName("docs");
+        tb.add("geo", Point.class);
+        tb.add("title", String.class);
+        tb.add("format", String.class);
+        SimpleFeatureType schema = tb.buildFeatureType();
+        VoyagerField title = new VoyagerField("title", "text_general", null);
+        title.tokenized = true;
+        title.lowercase = true;
+        schema.getDescriptor("title").getUserData().put(VoyagerField.class, title);
+        schema.getDescriptor("format").getUserData().put(VoyagerField.class, new VoyagerField("format", "string", null));
+
+        assertTrue(Snapshot.evaluable(ff.equals(ff.property("format"), ff.literal("pdf")), schema));
+        assertTrue(Snapshot.evaluable(ff.bbox("geo", 0, 0, 1, 1, null), schema));
+        assertFalse(Snapshot.evaluable(ff.equals(ff.property("title"), ff.literal("Roads")), schema));
+        assertFalse(Snapshot.evaluable(ff.and(ff.bbox("geo", 0, 0, 1, 1, null),
+            ff.like(ff.property("title"), "road%")), schema));
+        assertFalse(Snapshot.evaluable(ff.dwithin(ff.property("geo"), ff.literal(gf.createPoint(new Coordinate(0, 0))),
+            2500, "m"), schema));
+    }
+
+    @Test
+    public void mergeDropsDeletes() throws Exception {
+        MockSolrClient solr = new MockSolrClient().field("name", "string");
+        for (int i = 0; i < 3; i++) {
+            solr.add("f" + i, "geo", "POINT (" + i + " " + i + ")", "name", "n" + i);
+        }
+        VoyagerConfig config = VoyagerConfig.local();
+        config.uri = "http://mock-snapshot";
+        config.geoField = "geo";
+        config.spatialStrategy = SpatialStrategy.RPT;
+        VoyagerDataStore store = new VoyagerDataStore(config) {
+            @Override
+            SolrClient buildSolrClient(VoyagerConfig config, String uri) {
+                return solr;
+            }
+        };
+        try {
+            Snapshot snapshot = new Snapshot(store);
+            snapshot.source = (VoyagerFeatureSource) store.getFeatureSource(config.index);
+            Snapshot.Data loaded = snapshot.load("1");
+            assertEquals(3, loaded.size());
+
+            // a delete and an add leave as many documents as before, which a count doesn't catch
+            solr.docs.remove("f1");
+            solr.add("f3", "geo", "POINT (3 3)", "name", "n3");
+            Snapshot.Data merged = snapshot.merge(loaded, "2");
+            assertNotNull(merged);
+            assertEquals(3, merged.size());
+            assertEquals("f0", merged.ids[0]);
+            assertEquals("f2", merged.ids[1]);
+            assertEquals("f3", merged.ids[2]);
+        }
+        finally {
+            store.dispose();
+        }
+    }
+}
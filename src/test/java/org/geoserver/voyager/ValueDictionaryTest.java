@@ -0,0 +1,48 @@
+package org.geoserver.voyager;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ValueDictionaryTest {
+
+    @Test
+    public void sharesRepeatedValues() {
+        ValueDictionary dict = new ValueDictionary(10);
+        Object a = dict.intern("format", new String("pdf"));
+        Object b = dict.intern("format", new String("pdf"));
+        assertSame(a, b);
+        assertTrue(dict.accepts("format"));
+    }
+
+    @Test
+    public void skipsHighCardinalityFromLuke() {
+        ValueDictionary dict = new ValueDictionary(10);
+        dict.distinct("title", 1000);
+        assertFalse(dict.accepts("title"));
+
+        String v = new String("x");
+        assertSame(v, dict.intern("title", v));
+    }
+
+    @Test
+    public void disablesFieldsThatKeepMissing() {
+        ValueDictionary dict = new ValueDictionary(10);
+        for (int i = 0; i < 100; i++) {
+            dict.intern("title", "title " + i);
+        }
+        assertFalse(dict.accepts("title"));
+        assertNotSame(dict.intern("title", new String("title 99")), dict.intern("title", new String("title 99")));
+    }
+
+    @Test
+    public void passesThroughOtherValues() {
+        ValueDictionary dict = new ValueDictionary(10);
+        Long v = 12L;
+        assertSame(v, dict.intern("size", v));
+        assertSame(v, new ValueDictionary(0).intern("size", v));
+    }
+}
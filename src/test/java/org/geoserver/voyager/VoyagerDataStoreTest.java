@@ -20,6 +20,7 @@ import java.util.logging.ConsoleHandler;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
@@ -76,6 +77,21 @@ public class VoyagerDataStoreTest {
         }
     }
 
+    @Test
+    public void retypedFeatures() throws Exception {
+        SimpleFeatureSource source = store.getFeatureSource("v0");
+        Query q = new Query("v0", Filter.INCLUDE, new String[]{"geohash"});
+        q.setMaxFeatures(10);
+
+        SimpleFeatureIterator it = source.getFeatures(q).features();
+        assertTrue(it.hasNext());
+        while (it.hasNext()) {
+            SimpleFeature f = it.next();
+            assertEquals(1, f.getAttributeCount());
+            assertNotNull(f.getDefaultGeometry());
+        }
+    }
+
     @Test
     public void filterByBOX() throws Exception {
         Envelope e = new WKTReader().read("POLYGON ((-79.04654 40.97563, -79.04654 41.52007, -77.82233 41.52007, -77.82233 40.97563, -79.04654 40.97563))").getEnvelopeInternal();
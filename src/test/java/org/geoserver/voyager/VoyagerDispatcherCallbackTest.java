@@ -0,0 +1,76 @@
+package org.geoserver.voyager;
+
+import org.geoserver.config.impl.GeoServerImpl;
+import org.geoserver.ows.Request;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class VoyagerDispatcherCallbackTest {
+
+    Request request(String service, String name, String layers) {
+        Request request = new Request();
+        request.setService(service);
+        request.setRequest(name);
+        Map<String, Object> kvp = new HashMap<>();
+        kvp.put("LAYERS", layers);
+        request.setRawKvp(kvp);
+        return request;
+    }
+
+    @Test
+    public void bindsMapRequests() {
+        VoyagerDispatcherCallback callback = new VoyagerDispatcherCallback(new GeoServerImpl());
+        Request request = request("WMS", "GetMap", "voyager:v0");
+        callback.operationDispatched(request, null);
+        try {
+            assertEquals(Priority.INTERACTIVE, Priority.REQUEST.get());
+            assertEquals("WMS GetMap voyager:v0", QueryTrace.REQUEST.get());
+        }
+        finally {
+            callback.finished(request);
+        }
+        assertNull(Priority.REQUEST.get());
+        assertNull(Deadline.REQUEST.get());
+        assertNull(QueryTrace.REQUEST.get());
+    }
+
+    @Test
+    public void leavesOtherRequestsToSize() {
+        VoyagerDispatcherCallback callback = new VoyagerDispatcherCallback(new GeoServerImpl());
+        Request request = request("WFS", "GetFeature", null);
+        callback.operationDispatched(request, null);
+        try {
+            assertNull(Priority.REQUEST.get());
+            assertNull(Deadline.REQUEST.get());
+            assertEquals("WFS GetFeature", QueryTrace.REQUEST.get());
+        }
+        finally {
+            callback.finished(request);
+        }
+    }
+
+    @Test
+    public void seedingIsBulk() throws Exception {
+        VoyagerDispatcherCallback callback = new VoyagerDispatcherCallback(new GeoServerImpl());
+        Request request = request("WMS", "GetMap", "voyager:v0");
+        Priority[] bound = new Priority[1];
+        Thread seeder = new Thread(() -> {
+            callback.operationDispatched(request, null);
+            try {
+                bound[0] = Priority.REQUEST.get();
+            }
+            finally {
+                callback.finished(request);
+            }
+        }, VoyagerDispatcherCallback.SEEDER_THREAD + "0");
+        seeder.start();
+        seeder.join();
+
+        assertEquals(Priority.BULK, bound[0]);
+    }
+}
@@ -0,0 +1,221 @@
+package org.geoserver.voyager;
+
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.common.params.CommonParams;
+import org.apache.solr.common.params.SolrParams;
+import org.geotools.data.DataUtilities;
+import org.geotools.data.Query;
+import org.geotools.factory.CommonFactoryFinder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.locationtech.jts.geom.Point;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.filter.FilterFactory;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class VoyagerFeatureReaderTest {
+
+    MockSolrClient solr;
+    VoyagerConfig config;
+    VoyagerDataStore store;
+
+    @Before
+    public void setup() {
+        solr = new MockSolrClient().field("name", "string");
+        for (int i = 0; i < 5; i++) {
+            solr.add("f" + i, "geo", "POINT (" + i + " " + i + ")", "name", "n" + i, "_version_", 100L + i);
+        }
+
+        config = VoyagerConfig.local();
+        config.uri = "http://mock-reader";
+        config.geoField = "geo";
+        config.spatialStrategy = SpatialStrategy.RPT;
+        config.decodeThreads = 0;
+    }
+
+    @After
+    public void dispose() {
+        if (store != null) {
+            store.dispose();
+        }
+    }
+
+    VoyagerDataStore store() {
+        MockSolrClient client = solr;
+        store = new VoyagerDataStore(config) {
+            @Override
+            SolrClient buildSolrClient(VoyagerConfig config, String uri) {
+                return client;
+            }
+        };
+        return store;
+    }
+
+    List<SimpleFeature> read(Query query) throws IOException {
+        return DataUtilities.list(store.getFeatureSource(config.index).getFeatures(query));
+    }
+
+    @Test
+    public void geometryCacheWithAllProperties() throws Exception {
+        config.geometryCacheSize = 1 << 20;
+        store();
+
+        List<SimpleFeature> features = read(Query.ALL);
+        assertEquals(5, features.size());
+        for (int i = 0; i < 5; i++) {
+            Point p = (Point) features.get(i).getDefaultGeometry();
+            assertEquals(i, p.getX(), 0);
+            assertEquals(i, p.getY(), 0);
+            assertEquals("n" + i, features.get(i).getAttribute("name"));
+        }
+
+        // the stored geo field isn't read, geometries are fetched once and then cached
+        List<String> fl = Arrays.asList(solr.requests("/select").get(0).get(CommonParams.FL).split(","));
+        assertFalse(fl.toString(), fl.contains("*"));
+        assertFalse(fl.toString(), fl.contains("geo"));
+        assertEquals(1, solr.requests("/get").size());
+
+        assertEquals(5, read(Query.ALL).size());
+        assertEquals(1, solr.requests("/get").size());
+    }
+
+    @Test
+    public void geometriesSearchedWithoutRealTimeGet() throws Exception {
+        config.geometryCacheSize = 1 << 20;
+        config.realTimeGet = false;
+        store();
+
+        List<SimpleFeature> features = read(Query.ALL);
+        assertEquals(5, features.size());
+        for (int i = 0; i < 5; i++) {
+            assertEquals(i, ((Point) features.get(i).getDefaultGeometry()).getX(), 0);
+        }
+
+        assertEquals(0, solr.requests("/get").size());
+        List<SolrParams> selects = solr.requests("/select");
+        assertEquals("{!terms f=" + config.uniqueIdField + " v='f0,f1,f2,f3,f4'}",
+            selects.get(selects.size() - 1).get(CommonParams.Q));
+    }
+
+    @Test
+    public void idQueryWithCommas() {
+        assertEquals("{!terms f=id v='a,b\\'c'}", VoyagerFeatureReader.idQuery("id", Arrays.asList("a", "b'c")));
+        assertEquals("id:\"a,b\" OR id:\"c\\\"d\"", VoyagerFeatureReader.idQuery("id", Arrays.asList("a,b", "c\"d")));
+    }
+
+    @Test
+    public void idLookupInUniqueIdOrder() throws Exception {
+        store();
+        FilterFactory ff = CommonFactoryFinder.getFilterFactory();
+        Query query = new Query(config.index, ff.id(ff.featureId("f3"), ff.featureId("f1"), ff.featureId("f4")));
+
+        // like a search, which sorts by unique id ascending
+        List<SimpleFeature> features = read(query);
+        assertEquals(3, features.size());
+        assertEquals("n1", features.get(0).getAttribute("name"));
+        assertEquals("n3", features.get(1).getAttribute("name"));
+        assertEquals("n4", features.get(2).getAttribute("name"));
+        assertEquals(1, solr.requests("/get").size());
+    }
+
+    @Test
+    public void sharesPageWithConcurrentRead() throws Exception {
+        store();
+        read(Query.ALL);
+        int single = solr.requests("/select").size();
+
+        CountDownLatch hold = new CountDownLatch(1);
+        solr.onSearch = params -> {
+            try {
+                hold.await(5, TimeUnit.SECONDS);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        };
+
+        ExecutorService exec = Executors.newFixedThreadPool(2);
+        try {
+            Future<List<SimpleFeature>> first = exec.submit(() -> read(Query.ALL));
+            while (solr.requests("/select").size() == single) {
+                Thread.sleep(1);
+            }
+            Future<List<SimpleFeature>> second = exec.submit(() -> read(Query.ALL));
+            while (store.pages.getShared() == 0) {
+                Thread.sleep(1);
+            }
+            hold.countDown();
+
+            // the reader joining parses its own features from the response of the first
+            List<SimpleFeature> a = first.get();
+            List<SimpleFeature> b = second.get();
+            assertEquals(5, a.size());
+            assertEquals(5, b.size());
+            for (int i = 0; i < 5; i++) {
+                assertEquals("n" + i, b.get(i).getAttribute("name"));
+                assertFalse(a.get(i).getDefaultGeometry() == b.get(i).getDefaultGeometry());
+            }
+            assertTrue(solr.requests("/select").size() < 3 * single);
+        }
+        finally {
+            exec.shutdownNow();
+        }
+    }
+
+    @Test
+    public void resendsPageTooLargeToShare() throws Exception {
+        config.pageBytes = 1;
+        store();
+        read(Query.ALL);
+        int single = solr.requests("/select").size();
+
+        CountDownLatch hold = new CountDownLatch(1);
+        solr.onSearch = params -> {
+            try {
+                hold.await(5, TimeUnit.SECONDS);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        };
+
+        ExecutorService exec = Executors.newFixedThreadPool(2);
+        try {
+            Future<List<SimpleFeature>> first = exec.submit(() -> read(Query.ALL));
+            while (solr.requests("/select").size() == single) {
+                Thread.sleep(1);
+            }
+            Future<List<SimpleFeature>> second = exec.submit(() -> read(Query.ALL));
+            while (store.pages.getShared() == 0) {
+                Thread.sleep(1);
+            }
+            hold.countDown();
+
+            // the body isn't kept for the reader joining, which sends the request itself
+            List<SimpleFeature> a = first.get();
+            List<SimpleFeature> b = second.get();
+            assertEquals(5, a.size());
+            assertEquals(5, b.size());
+            for (int i = 0; i < 5; i++) {
+                assertEquals("n" + i, b.get(i).getAttribute("name"));
+            }
+            assertTrue(solr.requests("/select").size() >= 3 * single);
+        }
+        finally {
+            exec.shutdownNow();
+        }
+    }
+}